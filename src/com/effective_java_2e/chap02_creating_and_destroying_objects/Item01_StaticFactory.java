@@ -1,7 +1,42 @@
 package com.effective_java_2e.chap02_creating_and_destroying_objects;
 
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by sofia on 5/13/17.
@@ -55,8 +90,9 @@ public class Item01_StaticFactory {
     public static class Services {
         private Services() {} // Prevents instantiation
 
-        // Maps service names to services
-        private static final Map<String, Provider> providers = new ConcurrentHashMap<>();
+        // Maps service names to services - immutable table, replaced as a whole on every change
+        private static final AtomicReference<ProviderTable> providers =
+                new AtomicReference<>(new ProviderTable(Collections.<String, Registration>emptyMap(), 0, true));
 
         public static final String DEFAULT_PROVIDER_NAME = "<def>";
 
@@ -65,8 +101,50 @@ public class Item01_StaticFactory {
             registerProvider(DEFAULT_PROVIDER_NAME, p);
         }
 
+        // Copies the table on every call; use replaceProviders to register many providers at once
         public static void registerProvider(String name, Provider p) {
-            providers.put(name, p);
+            if (name == null || p == null) throw new NullPointerException();
+            ProviderTable current;
+            do {
+                current = providers.get();
+            } while (!providers.compareAndSet(current, current.with(name, p)));
+        }
+
+        /**
+         * Atomically replaces the whole provider table and returns the new version.
+         * Calls that have already read the old table finish against it; later calls see only the new one.
+         * The new table is authoritative: names it does not contain are no longer resolved from the build-time index.
+         */
+        public static long replaceProviders(Map<String, ? extends Provider> newProviders) {
+            if (newProviders.containsKey(null) || newProviders.containsValue(null)) throw new NullPointerException();
+            Map<String, Provider> copy = new HashMap<>(newProviders);
+            ProviderTable current;
+            ProviderTable next;
+            do {
+                current = providers.get();
+                Map<String, Registration> registrations = new HashMap<>();
+                for (Map.Entry<String, Provider> e : copy.entrySet())
+                    registrations.put(e.getKey(), current.register(e.getKey(), e.getValue()));
+                next = new ProviderTable(registrations, current.version + 1, false);
+            } while (!providers.compareAndSet(current, next));
+            return next.version;
+        }
+
+        public static long version() {
+            return providers.get().version;
+        }
+
+        /**
+         * Snapshot of lookup counts by service name, for the names currently registered.
+         * A lookup is a newInstance call, by name or through a ServiceHandle; a name keeps its count
+         * when its provider is re-registered or the table is replaced, as long as the name stays registered.
+         */
+        public static Map<String, Long> lookupCounts() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, Registration> e : providers.get().providers.entrySet()) {
+                result.put(e.getKey(), e.getValue().lookups.sum());
+            }
+            return result;
         }
 
         // Service access API
@@ -75,18 +153,427 @@ public class Item01_StaticFactory {
         }
 
         public static Service newInstance(String name) {
-            Provider p = providers.get(name);
-            if (p == null) {
+            Registration r = lookup(name);
+            if (r == null) {
+                throw new IllegalArgumentException("No provider registered with name: "+name);
+            }
+            r.lookups.increment();
+            return r.provider.newService();
+        }
+
+        // Resolution API - binds a name to its provider once, so later calls skip the map lookup
+        public static ServiceHandle handle() {
+            return handle(DEFAULT_PROVIDER_NAME);
+        }
+
+        public static ServiceHandle handle(String name) {
+            return handle(name, 0);
+        }
+
+        public static ServiceHandle handle(String name, int poolSize) {
+            Registration r = lookup(name);
+            if (r == null) {
                 throw new IllegalArgumentException("No provider registered with name: "+name);
             }
-            return p.newService();
+            return new ServiceHandle(name, r.provider, r.lookups, poolSize);
+        }
+
+        // Registered providers win; otherwise fall back to the build-time index, unless the table has been replaced
+        private static Registration lookup(String name) {
+            ProviderTable table = providers.get();
+            Registration r = table.providers.get(name);
+            if (r == null && table.indexed)
+                r = resolveIndexed(name);
+            return r;
+        }
+
+        // A provider and the lookup counter of its name, kept together so counting costs no extra map probe
+        private static final class Registration {
+            final Provider provider;
+            final LongAdder lookups;
+
+            Registration(Provider provider, LongAdder lookups) {
+                this.provider = provider;
+                this.lookups = lookups;
+            }
+        }
+
+        /*
+         * Immutable, versioned provider table.
+         * Readers load it once from the AtomicReference, so they never observe a partially applied update.
+         */
+        private static final class ProviderTable {
+            final Map<String, Registration> providers;
+            final long version;
+            final boolean indexed;      // False once replaceProviders has run; unknown names then stay unknown
+
+            ProviderTable(Map<String, Registration> providers, long version, boolean indexed) {
+                this.providers = providers;
+                this.version = version;
+                this.indexed = indexed;
+            }
+
+            ProviderTable with(String name, Provider p) {
+                Map<String, Registration> copy = new HashMap<>(providers);
+                copy.put(name, register(name, p));
+                return new ProviderTable(copy, version + 1, indexed);
+            }
+
+            // Registration for p under name, carrying over the name's counter from this table
+            Registration register(String name, Provider p) {
+                Registration previous = providers.get(name);
+                return new Registration(p, previous != null ? previous.lookups : new LongAdder());
+            }
+        }
+
+        /*
+         * Lazily loaded provider index - lazy initialization holder class idiom.
+         * The index maps names to class names only; no provider class is loaded until its name is requested.
+         */
+        private static class ProviderIndex {
+            static final Map<String, String> classNames = load(Services.class.getClassLoader());
+
+            static Map<String, String> load(ClassLoader loader) {
+                Map<String, String> result = new HashMap<>();
+                try {
+                    Enumeration<URL> urls = loader.getResources(PROVIDER_INDEX);
+                    while (urls.hasMoreElements()) {
+                        try (Reader r = new InputStreamReader(urls.nextElement().openStream(), StandardCharsets.UTF_8)) {
+                            result.putAll(readIndex(r));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot read provider index: "+PROVIDER_INDEX, e);
+                }
+                return result;
+            }
+        }
+
+        public static final String PROVIDER_INDEX = "META-INF/effective-java/providers.idx";
+
+        // Index format: one "name=binary.class.Name" per line; blank lines and lines starting with '#' are ignored
+        static Map<String, String> readIndex(Reader in) throws IOException {
+            Map<String, String> result = new HashMap<>();
+            BufferedReader r = new BufferedReader(in);
+            for (String line; (line = r.readLine()) != null; ) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                int sep = line.lastIndexOf('=');
+                if (sep <= 0) {
+                    throw new IOException("Malformed provider index line: "+line);
+                }
+                result.put(line.substring(0, sep), line.substring(sep + 1));
+            }
+            return result;
+        }
+
+        private static Registration resolveIndexed(String name) {
+            String className = ProviderIndex.classNames.get(name);
+            if (className == null) return null;
+            Provider p = instantiate(className);
+            ProviderTable current;
+            ProviderTable next;
+            do {
+                current = providers.get();
+                Registration previous = current.providers.get(name);
+                if (previous != null) return previous;
+                if (!current.indexed) return null;     // Replaced while the provider was being loaded
+                next = current.with(name, p);
+            } while (!providers.compareAndSet(current, next));
+            return next.providers.get(name);
+        }
+
+        static Provider instantiate(String className) {
+            return instantiate(className, Services.class.getClassLoader());
+        }
+
+        static Provider instantiate(String className, ClassLoader loader) {
+            try {
+                Class<? extends Provider> c = Class.forName(className, true, loader).asSubclass(Provider.class);
+                return c.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Cannot instantiate provider: "+className, e);
+            }
         }
     }
 
+    /**
+     * Build-time provider index
+     *
+     * Provider classes annotated with ServiceProvider are written to Services.PROVIDER_INDEX by ProviderIndexProcessor.
+     * Annotated classes must implement Provider and have an accessible parameterless constructor.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @Target(ElementType.TYPE)
+    public @interface ServiceProvider {
+        String value();   // Service name
+    }
+
+    @SupportedAnnotationTypes("com.effective_java_2e.chap02_creating_and_destroying_objects.Item01_StaticFactory.ServiceProvider")
+    public static class ProviderIndexProcessor extends AbstractProcessor {
+        // Sorted so the generated index is reproducible
+        private final Map<String, String> index = new TreeMap<>();
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            for (Element e : roundEnv.getElementsAnnotatedWith(ServiceProvider.class)) {
+                if (e.getKind() != ElementKind.CLASS) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@ServiceProvider applies only to classes", e);
+                    continue;
+                }
+                TypeElement provider = processingEnv.getElementUtils().getTypeElement(Provider.class.getCanonicalName());
+                if (!processingEnv.getTypeUtils().isAssignable(e.asType(), provider.asType())) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "@ServiceProvider class must implement "+provider.getQualifiedName(), e);
+                    continue;
+                }
+                if (e.getModifiers().contains(Modifier.ABSTRACT)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "@ServiceProvider class must not be abstract", e);
+                    continue;
+                }
+                String name = e.getAnnotation(ServiceProvider.class).value();
+                String className = processingEnv.getElementUtils().getBinaryName((TypeElement) e).toString();
+                String previous = index.put(name, className);
+                if (previous != null && !previous.equals(className)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Duplicate provider name: "+name, e);
+                }
+            }
+
+            if (roundEnv.processingOver() && !index.isEmpty()) {
+                writeIndex();
+            }
+            return true;
+        }
+
+        private void writeIndex() {
+            try {
+                FileObject f = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", Services.PROVIDER_INDEX);
+                try (Writer w = f.openWriter()) {
+                    for (Map.Entry<String, String> entry : index.entrySet()) {
+                        w.write(entry.getKey() + '=' + entry.getValue() + '\n');
+                    }
+                }
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write provider index: "+e);
+            }
+        }
+    }
+
+    /**
+     * Pre-resolved service handle
+     *
+     * The provider is looked up once, when the handle is created, and held in a final field.
+     * A handle does not see providers registered after it was created; obtain a new handle to pick them up.
+     *
+     * If the handle is created with a positive pool size, it keeps up to that many warm Service instances.
+     * newInstance takes one from the pool if available, and release returns it.
+     * Pooling only makes sense for services that are expensive to create and safe to reuse.
+     */
+    public static final class ServiceHandle {
+        private final String name;
+        private final Provider provider;
+        private final LongAdder lookups;    // Shared with the provider's registration in Services
+        private final int poolSize;
+
+        // Lock-free pool of warm instances; null if pooling is disabled
+        private final ConcurrentLinkedQueue<Service> pool;
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        private ServiceHandle(String name, Provider provider, LongAdder lookups, int poolSize) {
+            if (poolSize < 0) {
+                throw new IllegalArgumentException("Negative pool size: "+poolSize);
+            }
+            this.name = name;
+            this.provider = provider;
+            this.lookups = lookups;
+            this.poolSize = poolSize;
+            this.pool = poolSize > 0 ? new ConcurrentLinkedQueue<Service>() : null;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Service newInstance() {
+            lookups.increment();
+            if (pool != null) {
+                Service s = pool.poll();
+                if (s != null) {
+                    pooled.decrementAndGet();
+                    return s;
+                }
+            }
+            return provider.newService();
+        }
+
+        // Returns a service to the pool; the instance is dropped if the pool is full or disabled
+        public void release(Service s) {
+            if (pool == null || s == null) return;
+            if (pooled.incrementAndGet() <= poolSize) {
+                pool.offer(s);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+
+        // Fills the pool with fresh instances ahead of use
+        public ServiceHandle warm() {
+            if (pool != null) {
+                while (pooled.get() < poolSize) {
+                    release(provider.newService());
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Simple timing harness - newInstance(name) vs. pre-resolved handle
+     */
+    private static long time(int concurrency, final int iterations, final Runnable action) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final CountDownLatch ready = new CountDownLatch(concurrency);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(concurrency);
+
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        ready.countDown();
+                        try {
+                            start.await();
+                            for (int j = 0; j < iterations; j++)
+                                action.run();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            ready.await();
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            return System.nanoTime() - startNanos;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void timeResolution() throws InterruptedException {
+        Services.registerDefaultProvider(new Provider() {
+            public Service newService() {
+                return new Service() {};
+            }
+        });
+
+        final ServiceHandle handle = Services.handle();
+        final ServiceHandle pooledHandle = Services.handle(Services.DEFAULT_PROVIDER_NAME, 64).warm();
+        final int iterations = 1_000_000;
+
+        for (int threads : new int[] { 1, 8, 64 }) {
+            long lookup = time(threads, iterations, new Runnable() {
+                public void run() {
+                    Services.newInstance();
+                }
+            });
+            long resolved = time(threads, iterations, new Runnable() {
+                public void run() {
+                    handle.newInstance();
+                }
+            });
+            long pooled = time(threads, iterations, new Runnable() {
+                public void run() {
+                    pooledHandle.release(pooledHandle.newInstance());
+                }
+            });
+            System.out.printf("%2d threads: newInstance %d ms, handle %d ms, pooled handle %d ms%n",
+                    threads, lookup / 1_000_000, resolved / 1_000_000, pooled / 1_000_000);
+        }
+    }
+
+    /**
+     * Startup cost with 1k providers - eager registration vs. lazily resolved index
+     *
+     * Every index entry names IndexedProvider, but each is loaded through its own ProviderClassLoader,
+     * so each instantiation pays for loading, verifying, linking and initializing a distinct provider class.
+     */
+    public static class IndexedProvider implements Provider {
+        public Service newService() {
+            return new Service() {};
+        }
+    }
+
+    // Defines its own copy of IndexedProvider (and its nested classes) and delegates everything else
+    private static final class ProviderClassLoader extends ClassLoader {
+        private static final String PREFIX = IndexedProvider.class.getName();
+
+        ProviderClassLoader() {
+            super(IndexedProvider.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        if (in == null)
+                            throw new ClassNotFoundException(name);
+                        byte[] bytes = in.readAllBytes();
+                        c = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                if (resolve)
+                    resolveClass(c);
+                return c;
+            }
+        }
+    }
+
+    private static void timeStartup() throws IOException {
+        final int count = 1_000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("provider-").append(i).append('=').append(IndexedProvider.class.getName()).append('\n');
+        }
+        String indexText = sb.toString();
+
+        long start = System.nanoTime();
+        Map<String, Provider> eager = new HashMap<>();
+        for (Map.Entry<String, String> e : Services.readIndex(new StringReader(indexText)).entrySet()) {
+            Provider p = Services.instantiate(e.getValue(), new ProviderClassLoader());
+            p.newService();     // Loads the provider's Service class too, as a first request would
+            eager.put(e.getKey(), p);
+        }
+        long eagerNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Map<String, String> lazy = Services.readIndex(new StringReader(indexText));
+        Services.instantiate(lazy.get("provider-0"), new ProviderClassLoader()).newService(); // First request for one name
+        long lazyNanos = System.nanoTime() - start;
+
+        System.out.printf("%d providers, each a separately loaded class: eager registration %d us, lazy index %d us%n",
+                count, eagerNanos / 1_000, lazyNanos / 1_000);
+    }
 
 
-    public static void main(String[] args) {
 
+    public static void main(String[] args) throws InterruptedException, IOException {
+        timeResolution();
+        timeStartup();
     }
 
 }
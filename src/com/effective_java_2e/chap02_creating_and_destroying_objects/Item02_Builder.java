@@ -1,5 +1,20 @@
 package com.effective_java_2e.chap02_creating_and_destroying_objects;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * Created by sofia on 5/13/17.
  */
@@ -63,6 +78,43 @@ public class Item02_Builder {
             carbohydrate = builder.carbohydrate;
         }
 
+        private NutritionFacts(int servingSize, int servings, int calories, int fat, int sodium, int carbohydrate) {
+            this.servingSize = servingSize;
+            this.servings = servings;
+            this.calories = calories;
+            this.fat = fat;
+            this.sodium = sodium;
+            this.carbohydrate = carbohydrate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof NutritionFacts))
+                return false;
+            NutritionFacts nf = (NutritionFacts) o;
+            return nf.servingSize == servingSize && nf.servings == servings &&
+                    nf.calories == calories && nf.fat == fat &&
+                    nf.sodium == sodium && nf.carbohydrate == carbohydrate;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(servingSize, servings, calories, fat, sodium, carbohydrate);
+        }
+
+        private static int hash(int servingSize, int servings, int calories, int fat, int sodium, int carbohydrate) {
+            int result = 17;
+            result = 31 * result + servingSize;
+            result = 31 * result + servings;
+            result = 31 * result + calories;
+            result = 31 * result + fat;
+            result = 31 * result + sodium;
+            result = 31 * result + carbohydrate;
+            return result;
+        }
+
         public static class Builder {
             // Required parameters
             private final int servingSize;
@@ -103,6 +155,447 @@ public class Item02_Builder {
                 return new NutritionFacts(this);
             }
         }
+
+        /**
+         * Reusable builder
+         *
+         * Unlike Builder, this one is reset and reused across builds, so building does not allocate a throwaway builder.
+         * It is not thread-safe; confine each instance to one thread, e.g. through forCurrentThread().
+         *
+         * If created with an intern cache, build() returns a previously built instance when all six fields match it,
+         * so identical facts share one instance and a cache hit allocates nothing.
+         * The cache is direct-mapped: a colliding entry simply replaces the previous one.
+         */
+        public static final class ReusableBuilder implements Item02_Builder.Builder<NutritionFacts> {
+            private static final ThreadLocal<ReusableBuilder> CURRENT = new ThreadLocal<ReusableBuilder>() {
+                @Override
+                protected ReusableBuilder initialValue() {
+                    return new ReusableBuilder(0);
+                }
+            };
+
+            public static ReusableBuilder forCurrentThread() {
+                return CURRENT.get();
+            }
+
+            private int servingSize;
+            private int servings;
+            private int calories;
+            private int fat;
+            private int carbohydrate;
+            private int sodium;
+
+            // Intern cache; null if interning is disabled
+            private final NutritionFacts[] cache;
+            private long hits;
+            private long misses;
+
+            // internCacheSize of 0 disables interning; otherwise it is rounded up to a power of two
+            public ReusableBuilder(int internCacheSize) {
+                if (internCacheSize < 0)
+                    throw new IllegalArgumentException("Negative cache size: "+internCacheSize);
+                cache = internCacheSize == 0 ? null :
+                        new NutritionFacts[Math.max(2, Integer.highestOneBit(internCacheSize - 1) << 1)];
+            }
+
+            // Starts a new build; clears all optional parameters
+            public ReusableBuilder reset(int servingSize, int servings) {
+                this.servingSize = servingSize;
+                this.servings = servings;
+                calories = 0;
+                fat = 0;
+                carbohydrate = 0;
+                sodium = 0;
+                return this;
+            }
+
+            public ReusableBuilder calories(int val) {
+                calories = val;
+                return this;
+            }
+
+            public ReusableBuilder fat(int val) {
+                fat = val;
+                return this;
+            }
+
+            public ReusableBuilder carbohydrate(int val) {
+                carbohydrate = val;
+                return this;
+            }
+
+            public ReusableBuilder sodium(int val) {
+                sodium = val;
+                return this;
+            }
+
+            public NutritionFacts build() {
+                if (cache == null)
+                    return new NutritionFacts(servingSize, servings, calories, fat, sodium, carbohydrate);
+
+                int h = hash(servingSize, servings, calories, fat, sodium, carbohydrate);
+                int slot = (h * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(cache.length));
+                NutritionFacts cached = cache[slot];
+                if (cached != null && cached.servingSize == servingSize && cached.servings == servings &&
+                        cached.calories == calories && cached.fat == fat &&
+                        cached.sodium == sodium && cached.carbohydrate == carbohydrate) {
+                    hits++;
+                    return cached;
+                }
+                misses++;
+                return cache[slot] = new NutritionFacts(servingSize, servings, calories, fat, sodium, carbohydrate);
+            }
+
+            public long cacheHits() {
+                return hits;
+            }
+
+            public long cacheMisses() {
+                return misses;
+            }
+        }
+    }
+
+    /**
+     * Columnar (struct-of-arrays) store of NutritionFacts
+     *
+     * Each field is kept in its own int[] column, so scans and aggregates over one field touch only that column
+     * and no object is retained per record.
+     * Records are converted to and from NutritionFacts only at the edges, by append and get.
+     * Not thread-safe for appends; aggregates may run in parallel once loading is done.
+     */
+    public static final class NutritionFactsTable {
+        public enum Column { SERVING_SIZE, SERVINGS, CALORIES, FAT, SODIUM, CARBOHYDRATE }
+
+        private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+        private static final int SEQUENTIAL_CUTOFF = 1 << 16;   // Rows below which aggregates run on one thread
+
+        private final int[][] columns = new int[Column.values().length][];
+        private int size = 0;
+
+        public NutritionFactsTable() {
+            this(DEFAULT_INITIAL_CAPACITY);
+        }
+
+        public NutritionFactsTable(int initialCapacity) {
+            if (initialCapacity < 0)
+                throw new IllegalArgumentException("Negative capacity: "+initialCapacity);
+            for (int c = 0; c < columns.length; c++)
+                columns[c] = new int[initialCapacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void append(NutritionFacts nf) {
+            append(nf.servingSize, nf.servings, nf.calories, nf.fat, nf.sodium, nf.carbohydrate);
+        }
+
+        public void append(int servingSize, int servings, int calories, int fat, int sodium, int carbohydrate) {
+            ensureCapacity();
+            columns[0][size] = servingSize;
+            columns[1][size] = servings;
+            columns[2][size] = calories;
+            columns[3][size] = fat;
+            columns[4][size] = sodium;
+            columns[5][size] = carbohydrate;
+            size++;
+        }
+
+        public NutritionFacts get(int row) {
+            checkRow(row);
+            return new NutritionFacts(columns[0][row], columns[1][row], columns[2][row],
+                    columns[3][row], columns[4][row], columns[5][row]);
+        }
+
+        public int get(int row, Column column) {
+            checkRow(row);
+            return columns[column.ordinal()][row];
+        }
+
+        // Returns the indices of the rows whose value in column lies in [min, max]
+        public int[] select(Column column, int min, int max) {
+            int[] values = columns[column.ordinal()];
+            int[] result = new int[16];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int v = values[i];
+                if (v >= min && v <= max) {
+                    if (n == result.length)
+                        result = Arrays.copyOf(result, 2 * n);
+                    result[n++] = i;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        public Stats stats(Column column) {
+            return stats(column, column, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
+        // Aggregates column over the rows whose value in filter lies in [min, max]
+        public Stats stats(Column column, Column filter, int min, int max) {
+            Aggregate task = new Aggregate(columns[column.ordinal()], columns[filter.ordinal()], min, max, 0, size);
+            return size < SEQUENTIAL_CUTOFF ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+        }
+
+        private void checkRow(int row) {
+            if (row < 0 || row >= size)
+                throw new IndexOutOfBoundsException("Row: "+row+", size: "+size);
+        }
+
+        private void ensureCapacity() {
+            if (columns[0].length == size) {
+                for (int c = 0; c < columns.length; c++)
+                    columns[c] = Arrays.copyOf(columns[c], 2 * size + 1);
+            }
+        }
+
+        /**
+         * Count, sum, min and max of a set of values; min and max are meaningless if count is 0
+         */
+        public static final class Stats {
+            private final long count;
+            private final long sum;
+            private final int min;
+            private final int max;
+
+            private Stats(long count, long sum, int min, int max) {
+                this.count = count;
+                this.sum = sum;
+                this.min = min;
+                this.max = max;
+            }
+
+            public long count() { return count; }
+            public long sum() { return sum; }
+            public int min() { return min; }
+            public int max() { return max; }
+
+            private Stats combine(Stats s) {
+                return new Stats(count + s.count, sum + s.sum, Math.min(min, s.min), Math.max(max, s.max));
+            }
+
+            @Override
+            public String toString() {
+                return "count="+count+", sum="+sum+", min="+min+", max="+max;
+            }
+        }
+
+        private static final class Aggregate extends RecursiveTask<Stats> {
+            private static final long serialVersionUID = 1L;
+
+            private final int[] values;
+            private final int[] filter;
+            private final int min;
+            private final int max;
+            private final int from;
+            private final int to;
+
+            Aggregate(int[] values, int[] filter, int min, int max, int from, int to) {
+                this.values = values;
+                this.filter = filter;
+                this.min = min;
+                this.max = max;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected Stats compute() {
+                if (to - from <= SEQUENTIAL_CUTOFF) {
+                    long count = 0;
+                    long sum = 0;
+                    int lo = Integer.MAX_VALUE;
+                    int hi = Integer.MIN_VALUE;
+                    for (int i = from; i < to; i++) {
+                        int f = filter[i];
+                        if (f >= min && f <= max) {
+                            int v = values[i];
+                            count++;
+                            sum += v;
+                            if (v < lo) lo = v;
+                            if (v > hi) hi = v;
+                        }
+                    }
+                    return new Stats(count, sum, lo, hi);
+                }
+
+                int mid = (from + to) >>> 1;
+                Aggregate left = new Aggregate(values, filter, min, max, from, mid);
+                left.fork();
+                Stats right = new Aggregate(values, filter, min, max, mid, to).compute();
+                return left.join().combine(right);
+            }
+        }
+    }
+
+    /**
+     * Fixed-layout binary codec for NutritionFacts
+     *
+     * A record is the six int fields in declaration order, big-endian, RECORD_SIZE bytes in all.
+     * This is a persistent data format; changing it breaks every file already written.
+     */
+    public static final class NutritionFactsCodec {
+        private NutritionFactsCodec() {} // Prevents instantiation
+
+        public static final int RECORD_SIZE = 6 * Integer.BYTES;
+
+        // Writes nf at the buffer's position and advances it by RECORD_SIZE
+        public static void encode(NutritionFacts nf, ByteBuffer buf) {
+            buf.putInt(nf.servingSize).putInt(nf.servings).putInt(nf.calories)
+                    .putInt(nf.fat).putInt(nf.sodium).putInt(nf.carbohydrate);
+        }
+
+        // Reads a record at the buffer's position and advances it by RECORD_SIZE
+        public static NutritionFacts decode(ByteBuffer buf) {
+            return new NutritionFacts(buf.getInt(), buf.getInt(), buf.getInt(),
+                    buf.getInt(), buf.getInt(), buf.getInt());
+        }
+
+        // Reads a record at an absolute offset; does not move the buffer's position
+        public static NutritionFacts decode(ByteBuffer buf, int offset) {
+            return new NutritionFacts(buf.getInt(offset), buf.getInt(offset + 4), buf.getInt(offset + 8),
+                    buf.getInt(offset + 12), buf.getInt(offset + 16), buf.getInt(offset + 20));
+        }
+    }
+
+    /**
+     * Memory-mapped, append-only file of NutritionFacts records
+     *
+     * The file is mapped in fixed-size segments, so it can grow past the 2 GB limit of a single mapping.
+     * Records are addressed by index; get and the cursor read straight from the mapping.
+     * A header holds the record count, updated on every append, so the file can be reopened even if it was
+     * never closed: mapping a segment may extend the file beyond its last record, and only close truncates it back.
+     * Instances are not thread-safe.
+     */
+    public static final class NutritionFactsFile implements Closeable {
+        private static final int RECORDS_PER_SEGMENT = 1 << 22;    // 96 MB segments
+        private static final long SEGMENT_SIZE = (long) RECORDS_PER_SEGMENT * NutritionFactsCodec.RECORD_SIZE;
+        private static final long MAGIC = 0x4E55545246414354L;      // "NUTRFACT"
+        private static final int HEADER_SIZE = 16;                  // Magic, then the record count
+
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private long size;
+        private boolean closed;
+
+        public NutritionFactsFile(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long length = channel.size();
+                if (length != 0 && length < HEADER_SIZE)
+                    throw new IOException("Not a NutritionFacts file (length "+length+"): "+path);
+                header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                if (length == 0) {
+                    header.putLong(0, MAGIC).putLong(8, 0);
+                } else {
+                    size = header.getLong(8);
+                    if (header.getLong(0) != MAGIC || size < 0 || size > (length - HEADER_SIZE) / NutritionFactsCodec.RECORD_SIZE)
+                        throw new IOException("Not a NutritionFacts file (length "+length+", records "+size+"): "+path);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long append(NutritionFacts nf) throws IOException {
+            checkOpen();
+            ByteBuffer buf = segmentFor(size).duplicate();
+            buf.position(offsetOf(size));
+            NutritionFactsCodec.encode(nf, buf);
+            header.putLong(8, size + 1);    // Written after the record, so the count never covers a partial record
+            return size++;
+        }
+
+        public NutritionFacts get(long index) throws IOException {
+            checkOpen();
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: "+index+", size: "+size);
+            return NutritionFactsCodec.decode(segmentFor(index), offsetOf(index));
+        }
+
+        // Returns a cursor positioned before the first record
+        public Cursor cursor() {
+            checkOpen();
+            return new Cursor();
+        }
+
+        public void force() {
+            for (MappedByteBuffer segment : segments)
+                segment.force();
+            header.force();
+        }
+
+        // The mappings themselves are released only when they are garbage collected
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                force();
+                channel.truncate(HEADER_SIZE + size * NutritionFactsCodec.RECORD_SIZE);
+            } finally {
+                segments.clear();
+                channel.close();
+            }
+        }
+
+        private void checkOpen() {
+            if (closed)
+                throw new IllegalStateException("File closed");
+        }
+
+        private static int offsetOf(long index) {
+            return (int) (index % RECORDS_PER_SEGMENT) * NutritionFactsCodec.RECORD_SIZE;
+        }
+
+        private MappedByteBuffer segmentFor(long index) throws IOException {
+            int s = (int) (index / RECORDS_PER_SEGMENT);
+            while (segments.size() <= s)
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+            return segments.get(s);
+        }
+
+        /**
+         * Streaming cursor - reads fields of the current record in place, without creating an object per row
+         */
+        public final class Cursor {
+            private long index = -1;
+            private ByteBuffer segment;
+            private int offset;
+
+            private Cursor() {}
+
+            public boolean next() throws IOException {
+                checkOpen();
+                if (index + 1 >= size) return false;
+                index++;
+                if (segment == null || index % RECORDS_PER_SEGMENT == 0)
+                    segment = segmentFor(index);
+                offset = offsetOf(index);
+                return true;
+            }
+
+            public long index() { return index; }
+            public int servingSize() { return segment.getInt(offset); }
+            public int servings() { return segment.getInt(offset + 4); }
+            public int calories() { return segment.getInt(offset + 8); }
+            public int fat() { return segment.getInt(offset + 12); }
+            public int sodium() { return segment.getInt(offset + 16); }
+            public int carbohydrate() { return segment.getInt(offset + 20); }
+
+            public NutritionFacts toNutritionFacts() {
+                return NutritionFactsCodec.decode(segment, offset);
+            }
+        }
     }
 
     /**
@@ -118,12 +611,85 @@ public class Item02_Builder {
 
 
 
-    public static void main(String[] args) {
+    /**
+     * Allocation rate per build - new Builder vs. reusable builder, with and without interning
+     */
+    private static NutritionFacts sink; // Keeps built instances from being optimized away
+
+    private static void measureAllocation(String label, Builder<NutritionFacts> template, int builds) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < builds; i++)
+            sink = template.build();
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(tid) - bytes;
+        System.out.printf("%-24s %6.1f bytes/op %6.1f ns/op%n",
+                label, (double) bytes / builds, (double) nanos / builds);
+    }
+
+
+
+    public static void main(String[] args) throws IOException {
         NutritionFacts cocaCola = new NutritionFacts.Builder(240, 8)
                 .calories(100)
                 .sodium(35)
                 .carbohydrate(27)
                 .build();
+
+        final int builds = 10_000_000;
+        final int distinct = 1_000;
+        for (int round = 0; round < 2; round++) {   // First round warms up the JIT
+            measureAllocation("new Builder", new Builder<NutritionFacts>() {
+                int i;
+                public NutritionFacts build() {
+                    return new NutritionFacts.Builder(240, 8).calories(i++ % distinct).sodium(35).build();
+                }
+            }, builds);
+
+            measureAllocation("reusable builder", new Builder<NutritionFacts>() {
+                final NutritionFacts.ReusableBuilder b = NutritionFacts.ReusableBuilder.forCurrentThread();
+                int i;
+                public NutritionFacts build() {
+                    return b.reset(240, 8).calories(i++ % distinct).sodium(35).build();
+                }
+            }, builds);
+
+            measureAllocation("reusable + interning", new Builder<NutritionFacts>() {
+                final NutritionFacts.ReusableBuilder b = new NutritionFacts.ReusableBuilder(4 * distinct);
+                int i;
+                public NutritionFacts build() {
+                    return b.reset(240, 8).calories(i++ % distinct).sodium(35).build();
+                }
+            }, builds);
+        }
+
+        NutritionFactsTable table = new NutritionFactsTable();
+        for (int i = 0; i < 10_000_000; i++)
+            table.append(240, 8, i % distinct, i % 7, i % 500, 27);
+        table.append(cocaCola);
+        System.out.println("calories: " + table.stats(NutritionFactsTable.Column.CALORIES));
+        System.out.println("sodium where calories <= 100: " +
+                table.stats(NutritionFactsTable.Column.SODIUM, NutritionFactsTable.Column.CALORIES, 0, 100));
+
+        Path path = Files.createTempFile("nutrition-facts", ".bin");
+        try {
+            try (NutritionFactsFile file = new NutritionFactsFile(path)) {
+                for (int i = 0; i < table.size(); i++)
+                    file.append(table.get(i));
+            }
+            try (NutritionFactsFile file = new NutritionFactsFile(path)) {
+                long calories = 0;
+                NutritionFactsFile.Cursor cursor = file.cursor();
+                while (cursor.next())
+                    calories += cursor.calories();
+                System.out.println(file.size() + " records, calories: " + calories +
+                        ", last: " + file.get(file.size() - 1).equals(cocaCola));
+            }
+        } finally {
+            Files.delete(path);
+        }
     }
 
 }
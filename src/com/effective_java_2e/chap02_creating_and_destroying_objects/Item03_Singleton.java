@@ -1,5 +1,20 @@
 package com.effective_java_2e.chap02_creating_and_destroying_objects;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Created by sofia on 5/13/17.
  */
@@ -75,8 +90,192 @@ public class Item03_Singleton {
 
 
 
-    public static void main(String[] args) {
+    /**
+     * Startup warm-up of singletons and lazily initialized holder classes
+     *
+     * Each entry is an initialization action plus the names of the entries it depends on.
+     * run() starts every entry as soon as all of its dependencies have finished,
+     * so independent entries initialize in parallel and the first request after boot finds them ready.
+     *
+     * If an entry fails, the entries that depend on it are skipped and run() throws once all others are done.
+     */
+    public static final class WarmUp {
+        private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        public WarmUp add(String name, Runnable init, String... dependsOn) {
+            if (entries.containsKey(name))
+                throw new IllegalArgumentException("Duplicate entry: "+name);
+            entries.put(name, new Entry(name, init, dependsOn));
+            return this;
+        }
+
+        // Initializes a class by name, e.g. a private holder class that cannot be named with a class literal
+        public WarmUp addClass(final String className, String... dependsOn) {
+            return add(className, new Runnable() {
+                public void run() {
+                    try {
+                        Class.forName(className, true, WarmUp.class.getClassLoader());
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException("No such class: "+className, e);
+                    }
+                }
+            }, dependsOn);
+        }
+
+        public WarmUp addClass(Class<?> c, String... dependsOn) {
+            return addClass(c.getName(), dependsOn);
+        }
+
+        public Map<String, Long> run() throws InterruptedException {
+            return run(ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Runs all entries on executor and returns each entry's initialization time in nanoseconds,
+         * in completion order. Entries that were skipped are absent.
+         */
+        public Map<String, Long> run(final Executor executor) throws InterruptedException {
+            final Map<String, List<Entry>> dependents = link();
+            final Map<String, Long> times = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+            final ConcurrentHashMap<String, Boolean> failed = new ConcurrentHashMap<>();
+            final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(entries.size());
+
+            final Map<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+            for (Entry e : entries.values())
+                pending.put(e.name, new AtomicInteger(e.dependsOn.size()));
+
+            class Scheduler {
+                void submit(final Entry e) {
+                    if (anyFailed(e)) {     // Skipped; no need to occupy the executor
+                        finish(e, false);
+                        return;
+                    }
+                    try {
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                long start = System.nanoTime();
+                                boolean ok = false;
+                                try {
+                                    e.init.run();
+                                    times.put(e.name, System.nanoTime() - start);
+                                    ok = true;
+                                } catch (RuntimeException | Error t) {
+                                    fail(new IllegalStateException("Warm-up failed: "+e.name, t));
+                                }
+                                finish(e, ok);
+                            }
+                        });
+                    } catch (RejectedExecutionException t) {
+                        // A saturated or shut-down executor fails the entry instead of leaving run() waiting forever
+                        fail(new IllegalStateException("Warm-up rejected by executor: "+e.name, t));
+                        finish(e, false);
+                    }
+                }
+
+                void fail(RuntimeException ex) {
+                    if (!failure.compareAndSet(null, ex))
+                        failure.get().addSuppressed(ex);
+                }
+
+                void finish(Entry e, boolean ok) {
+                    if (!ok)
+                        failed.put(e.name, Boolean.TRUE);
+                    done.countDown();
+                    for (Entry d : dependents.get(e.name))
+                        if (pending.get(d.name).decrementAndGet() == 0)
+                            submit(d);
+                }
+
+                boolean anyFailed(Entry e) {
+                    for (String dep : e.dependsOn)
+                        if (failed.containsKey(dep))
+                            return true;
+                    return false;
+                }
+            }
+
+            Scheduler scheduler = new Scheduler();
+            for (Entry e : entries.values())
+                if (e.dependsOn.isEmpty())
+                    scheduler.submit(e);
+            done.await();
+
+            if (failure.get() != null)
+                throw failure.get();
+            return times;
+        }
+
+        // Maps each entry to the entries that depend on it; rejects unknown dependencies and cycles
+        private Map<String, List<Entry>> link() {
+            Map<String, List<Entry>> dependents = new LinkedHashMap<>();
+            for (Entry e : entries.values())
+                dependents.put(e.name, new ArrayList<Entry>());
+            for (Entry e : entries.values()) {
+                for (String dep : e.dependsOn) {
+                    List<Entry> list = dependents.get(dep);
+                    if (list == null)
+                        throw new IllegalStateException(e.name+" depends on unknown entry: "+dep);
+                    list.add(e);
+                }
+            }
+
+            // Kahn's algorithm: if not every entry can be ordered, the rest form a cycle
+            Map<String, Integer> remaining = new LinkedHashMap<>();
+            List<Entry> ready = new ArrayList<>();
+            for (Entry e : entries.values()) {
+                remaining.put(e.name, e.dependsOn.size());
+                if (e.dependsOn.isEmpty())
+                    ready.add(e);
+            }
+            int ordered = 0;
+            while (!ready.isEmpty()) {
+                Entry e = ready.remove(ready.size() - 1);
+                ordered++;
+                for (Entry d : dependents.get(e.name)) {
+                    int r = remaining.get(d.name) - 1;
+                    remaining.put(d.name, r);
+                    if (r == 0)
+                        ready.add(d);
+                }
+            }
+            if (ordered != entries.size()) {
+                List<String> cycle = new ArrayList<>();
+                for (Map.Entry<String, Integer> r : remaining.entrySet())
+                    if (r.getValue() > 0)
+                        cycle.add(r.getKey());
+                throw new IllegalStateException("Dependency cycle among: "+cycle);
+            }
+            return dependents;
+        }
+
+        private static final class Entry {
+            final String name;
+            final Runnable init;
+            final List<String> dependsOn;
+
+            Entry(String name, Runnable init, String[] dependsOn) {
+                if (name == null || init == null)
+                    throw new NullPointerException();
+                this.name = name;
+                this.init = init;
+                this.dependsOn = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(Arrays.asList(dependsOn))));
+            }
+        }
+    }
+
+
 
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, Long> times = new WarmUp()
+                .addClass(Elvis.class)
+                .addClass(Elvis2.class, Elvis.class.getName())
+                .addClass(Elvis3.class)
+                .addClass("com.effective_java_2e.chap10_concurrency.Item71_LazyInitialization$FieldHolder",
+                        Elvis3.class.getName())
+                .run();
+        for (Map.Entry<String, Long> e : times.entrySet())
+            System.out.printf("%-100s %8d us%n", e.getKey(), e.getValue() / 1_000);
     }
 
 }
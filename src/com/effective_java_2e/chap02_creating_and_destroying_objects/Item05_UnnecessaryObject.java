@@ -1,8 +1,15 @@
 package com.effective_java_2e.chap02_creating_and_destroying_objects;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Created by sofia on 5/13/17.
@@ -72,6 +79,151 @@ public class Item05_UnnecessaryObject {
 
 
 
+    /**
+     * Bulk classification of birth dates given as epoch milliseconds
+     *
+     * n sorted boundaries split time into n + 1 generations:
+     * generation 0 is before the first boundary, generation i is in [boundary[i-1], boundary[i]), and so on.
+     * Work over large inputs is split across cores; no Date or other object is created per birth date.
+     */
+    public static final class Generations {
+        private static final int SEQUENTIAL_CUTOFF = 1 << 16;   // Must be a multiple of 64 for bitmaps
+
+        private final long[] boundaries;
+
+        public Generations(long... boundaries) {
+            for (int i = 1; i < boundaries.length; i++)
+                if (boundaries[i] <= boundaries[i - 1])
+                    throw new IllegalArgumentException("Boundaries not strictly increasing: "+boundaries[i]);
+            this.boundaries = boundaries.clone();
+        }
+
+        // Generation 1 is the baby boom, as in Person2
+        public static Generations babyBoom() {
+            return new Generations(Person2.BOOM_START.getTime(), Person2.BOOM_END.getTime());
+        }
+
+        public int generations() {
+            return boundaries.length + 1;
+        }
+
+        public int classify(long epochMillis) {
+            int g = 0;
+            for (long b : boundaries)
+                if (epochMillis >= b)
+                    g++;
+            return g;
+        }
+
+        // Returns the number of birth dates in each generation
+        public long[] count(long[] births) {
+            return count(LongBuffer.wrap(births));
+        }
+
+        // Counts the buffer's remaining elements, from its position to its limit; does not move the position
+        public long[] count(LongBuffer births) {
+            births = births.slice();
+            Count task = new Count(births, 0, births.limit());
+            return births.limit() <= SEQUENTIAL_CUTOFF ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+        }
+
+        // Returns a bitmap with bit i set if births[i] is in generation; bit i is word i / 64, bit i % 64
+        // For a buffer, i counts from its position
+        public long[] bitmap(long[] births, int generation) {
+            return bitmap(LongBuffer.wrap(births), generation);
+        }
+
+        public long[] bitmap(LongBuffer births, int generation) {
+            if (generation < 0 || generation > boundaries.length)
+                throw new IllegalArgumentException("No such generation: "+generation);
+            births = births.slice();
+            long[] bits = new long[(births.limit() + 63) >>> 6];
+            Mark task = new Mark(births, bits, generation, 0, births.limit());
+            if (births.limit() <= SEQUENTIAL_CUTOFF)
+                task.compute();
+            else
+                ForkJoinPool.commonPool().invoke(task);
+            return bits;
+        }
+
+        /**
+         * Maps count native-order longs of a column file, starting at record from.
+         * A single mapping is limited to Integer.MAX_VALUE bytes; map larger columns in slices.
+         */
+        public static LongBuffer mapColumn(FileChannel channel, long from, int count) throws IOException {
+            if ((long) count * Long.BYTES > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Slice too large: "+count);
+            return channel.map(FileChannel.MapMode.READ_ONLY, from * Long.BYTES, (long) count * Long.BYTES)
+                    .order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+
+        private final class Count extends RecursiveTask<long[]> {
+            private static final long serialVersionUID = 1L;
+
+            private final LongBuffer births;
+            private final int from;
+            private final int to;
+
+            Count(LongBuffer births, int from, int to) {
+                this.births = births;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected long[] compute() {
+                if (to - from <= SEQUENTIAL_CUTOFF) {
+                    long[] counts = new long[boundaries.length + 1];
+                    for (int i = from; i < to; i++)
+                        counts[classify(births.get(i))]++;
+                    return counts;
+                }
+                int mid = (from + to) >>> 1;
+                Count left = new Count(births, from, mid);
+                left.fork();
+                long[] counts = new Count(births, mid, to).compute();
+                long[] leftCounts = left.join();
+                for (int g = 0; g < counts.length; g++)
+                    counts[g] += leftCounts[g];
+                return counts;
+            }
+        }
+
+        private final class Mark extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final LongBuffer births;
+            private final long[] bits;
+            private final int generation;
+            private final int from;
+            private final int to;
+
+            Mark(LongBuffer births, long[] bits, int generation, int from, int to) {
+                this.births = births;
+                this.bits = bits;
+                this.generation = generation;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= SEQUENTIAL_CUTOFF) {
+                    for (int i = from; i < to; i++)
+                        if (classify(births.get(i)) == generation)
+                            bits[i >>> 6] |= 1L << i;
+                    return;
+                }
+                // Split on a word boundary so no two tasks write the same word
+                int mid = ((from + to) >>> 1) & ~63;
+                invokeAll(new Mark(births, bits, generation, from, mid),
+                        new Mark(births, bits, generation, mid, to));
+            }
+        }
+    }
+
+
+
     public static void main(String[] args) {
         // Reuse string instances
         String s1 = new String("stringette"); // DON'T DO THIS
@@ -83,6 +235,18 @@ public class Item05_UnnecessaryObject {
             sum += i; // creates unnecessary instances
         }
         System.out.println(sum);
+
+        // Classify births spread evenly over 1900..2000 in bulk
+        long[] births = new long[4_000_000];     // 32 MB; larger columns belong in a file, see mapColumn
+        long step = (946684800000L + 2208988800000L) / births.length;
+        for (int i = 0; i < births.length; i++)
+            births[i] = -2208988800000L + i * step;
+        Generations boom = Generations.babyBoom();
+        long start = System.nanoTime();
+        long[] counts = boom.count(births);
+        long[] bits = boom.bitmap(births, 1);
+        System.out.printf("boomers: %d of %d, first bitmap word: %x (%d ms)%n",
+                counts[1], births.length, bits[0], (System.nanoTime() - start) / 1_000_000);
     }
 
 }
@@ -1,7 +1,24 @@
 package com.effective_java_2e.chap02_creating_and_destroying_objects;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Created by sofia on 5/13/17.
@@ -110,8 +127,494 @@ public class Item06_ObsoleteObjectReference {
 
 
 
+    /**
+     * Primitive-specialized stacks
+     *
+     * Same push/pop contract as Stack2, but elements are stored in a primitive array, so pushing does not box.
+     * There are no references to null out; instead the backing store shrinks once the stack has been popped
+     * down to a quarter of its capacity, so a stack that grew once does not hold on to its peak memory forever.
+     * The quarter/half hysteresis keeps alternating pushes and pops at a boundary from resizing every time.
+     *
+     * For very large stacks, the elements can be kept off heap in a direct ByteBuffer instead.
+     * A direct buffer holds at most Integer.MAX_VALUE bytes, and its memory is freed only when the buffer is collected.
+     */
+    abstract static class PrimitiveStack {
+        static final int DEFAULT_INITIAL_CAPACITY = 16;
+        static final double DEFAULT_GROWTH_FACTOR = 2.0;
+
+        private final int minCapacity;
+        private final double growthFactor;
+        private final int maxCapacity;
+        int capacity;
+        int size = 0;
+
+        PrimitiveStack(int initialCapacity, double growthFactor, int elementBytes, boolean offHeap) {
+            if (initialCapacity < 1)
+                throw new IllegalArgumentException("Initial capacity must be positive: "+initialCapacity);
+            if (!(growthFactor > 1.0))
+                throw new IllegalArgumentException("Growth factor must exceed 1: "+growthFactor);
+            this.minCapacity = initialCapacity;
+            this.growthFactor = growthFactor;
+            this.maxCapacity = offHeap ? Integer.MAX_VALUE / elementBytes : Integer.MAX_VALUE - 8;
+            if (initialCapacity > maxCapacity)
+                throw new IllegalArgumentException("Initial capacity too large: "+initialCapacity);
+            this.capacity = initialCapacity;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int capacity() {
+            return capacity;
+        }
+
+        abstract void resize(int newCapacity);
+
+        final void ensureCapacity() {
+            if (size == capacity) {
+                if (capacity == maxCapacity)
+                    throw new IllegalStateException("Stack full: "+capacity);
+                int newCapacity = (int) Math.min(maxCapacity, Math.max(capacity + 1L, (long) (capacity * growthFactor)));
+                resize(newCapacity);
+                capacity = newCapacity;
+            }
+        }
+
+        final void shrinkIfSparse() {
+            if (size < capacity / 4 && capacity / 2 >= minCapacity) {
+                int newCapacity = capacity / 2;
+                resize(newCapacity);
+                capacity = newCapacity;
+            }
+        }
+
+        static ByteBuffer allocateDirect(int capacity, int elementBytes) {
+            return ByteBuffer.allocateDirect(capacity * elementBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    public static final class IntStack extends PrimitiveStack {
+        private int[] elements; // Heap backing; null if off-heap
+        private IntBuffer offHeap; // Off-heap backing; null if on heap
+
+        public IntStack() {
+            this(DEFAULT_INITIAL_CAPACITY, DEFAULT_GROWTH_FACTOR, false);
+        }
+
+        public IntStack(int initialCapacity, double growthFactor, boolean offHeap) {
+            super(initialCapacity, growthFactor, Integer.BYTES, offHeap);
+            if (offHeap)
+                this.offHeap = allocateDirect(initialCapacity, Integer.BYTES).asIntBuffer();
+            else
+                elements = new int[initialCapacity];
+        }
+
+        public void push(int e) {
+            ensureCapacity();
+            if (elements != null)
+                elements[size++] = e;
+            else
+                offHeap.put(size++, e);
+        }
+
+        public int pop() {
+            if (size == 0) throw new EmptyStackException();
+            int result = elements != null ? elements[--size] : offHeap.get(--size);
+            shrinkIfSparse();
+            return result;
+        }
+
+        public int peek() {
+            if (size == 0) throw new EmptyStackException();
+            return elements != null ? elements[size - 1] : offHeap.get(size - 1);
+        }
+
+        @Override
+        void resize(int newCapacity) {
+            if (elements != null) {
+                elements = Arrays.copyOf(elements, newCapacity);
+            } else {
+                IntBuffer copy = allocateDirect(newCapacity, Integer.BYTES).asIntBuffer();
+                IntBuffer src = offHeap.duplicate();
+                src.limit(size);
+                copy.put(src).clear();
+                offHeap = copy;
+            }
+        }
+    }
+
+    public static final class LongStack extends PrimitiveStack {
+        private long[] elements; // Heap backing; null if off-heap
+        private LongBuffer offHeap; // Off-heap backing; null if on heap
+
+        public LongStack() {
+            this(DEFAULT_INITIAL_CAPACITY, DEFAULT_GROWTH_FACTOR, false);
+        }
+
+        public LongStack(int initialCapacity, double growthFactor, boolean offHeap) {
+            super(initialCapacity, growthFactor, Long.BYTES, offHeap);
+            if (offHeap)
+                this.offHeap = allocateDirect(initialCapacity, Long.BYTES).asLongBuffer();
+            else
+                elements = new long[initialCapacity];
+        }
+
+        public void push(long e) {
+            ensureCapacity();
+            if (elements != null)
+                elements[size++] = e;
+            else
+                offHeap.put(size++, e);
+        }
+
+        public long pop() {
+            if (size == 0) throw new EmptyStackException();
+            long result = elements != null ? elements[--size] : offHeap.get(--size);
+            shrinkIfSparse();
+            return result;
+        }
+
+        public long peek() {
+            if (size == 0) throw new EmptyStackException();
+            return elements != null ? elements[size - 1] : offHeap.get(size - 1);
+        }
+
+        @Override
+        void resize(int newCapacity) {
+            if (elements != null) {
+                elements = Arrays.copyOf(elements, newCapacity);
+            } else {
+                LongBuffer copy = allocateDirect(newCapacity, Long.BYTES).asLongBuffer();
+                LongBuffer src = offHeap.duplicate();
+                src.limit(size);
+                copy.put(src).clear();
+                offHeap = copy;
+            }
+        }
+    }
+
+    public static final class DoubleStack extends PrimitiveStack {
+        private double[] elements; // Heap backing; null if off-heap
+        private DoubleBuffer offHeap; // Off-heap backing; null if on heap
+
+        public DoubleStack() {
+            this(DEFAULT_INITIAL_CAPACITY, DEFAULT_GROWTH_FACTOR, false);
+        }
+
+        public DoubleStack(int initialCapacity, double growthFactor, boolean offHeap) {
+            super(initialCapacity, growthFactor, Double.BYTES, offHeap);
+            if (offHeap)
+                this.offHeap = allocateDirect(initialCapacity, Double.BYTES).asDoubleBuffer();
+            else
+                elements = new double[initialCapacity];
+        }
+
+        public void push(double e) {
+            ensureCapacity();
+            if (elements != null)
+                elements[size++] = e;
+            else
+                offHeap.put(size++, e);
+        }
+
+        public double pop() {
+            if (size == 0) throw new EmptyStackException();
+            double result = elements != null ? elements[--size] : offHeap.get(--size);
+            shrinkIfSparse();
+            return result;
+        }
+
+        public double peek() {
+            if (size == 0) throw new EmptyStackException();
+            return elements != null ? elements[size - 1] : offHeap.get(size - 1);
+        }
+
+        @Override
+        void resize(int newCapacity) {
+            if (elements != null) {
+                elements = Arrays.copyOf(elements, newCapacity);
+            } else {
+                DoubleBuffer copy = allocateDirect(newCapacity, Double.BYTES).asDoubleBuffer();
+                DoubleBuffer src = offHeap.duplicate();
+                src.limit(size);
+                copy.put(src).clear();
+                offHeap = copy;
+            }
+        }
+    }
+
+
+
+    /**
+     * Retained-reference monitor for array-backed containers
+     *
+     * An opt-in diagnostic for the Stack1 bug: objects left in the slots past size.
+     * Each sample looks at up to maxSamples slots in [size, elements.length) and tracks the non-null ones
+     * through weak references registered with a reference queue.
+     * A tracked object stops counting as retained once it is collected (it shows up on the queue)
+     * or once a later sample finds that its slot was cleared, overwritten or is live again.
+     *
+     * Retained bytes are shallow-size estimates (16-byte header, 8-byte references), not exact heap usage.
+     * Not meant for hot paths: all methods are synchronized.
+     */
+    public static final class RetentionMonitor {
+        private final int maxSamples;
+        private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+        private final ReferenceQueue<Object> containerQueue = new ReferenceQueue<>();
+        private final Map<ContainerKey, List<Tracked>> trackedByContainer = new HashMap<>();  // Weak, by identity
+        private final Map<String, Stats> statsByClass = new TreeMap<>();
+        private final Map<Class<?>, Long> shallowSizes = new HashMap<>();
+
+        public RetentionMonitor(int maxSamples) {
+            if (maxSamples < 1)
+                throw new IllegalArgumentException("maxSamples must be positive: "+maxSamples);
+            this.maxSamples = maxSamples;
+        }
+
+        // Samples a container whose elements and size are held in the named fields, e.g. ("elements", "size")
+        public void sample(Object container, String elementsField, String sizeField) {
+            try {
+                Field e = field(container.getClass(), elementsField);
+                Field s = field(container.getClass(), sizeField);
+                sample(container, (Object[]) e.get(container), s.getInt(container));
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Not an array-backed container: "+container.getClass().getName(), e);
+            }
+        }
+
+        public synchronized void sample(Object container, Object[] elements, int size) {
+            drainQueue();
+            Stats stats = stats(container.getClass().getName());
+            List<Tracked> tracked = trackedByContainer.get(new ContainerKey(container, null));
+            if (tracked == null)
+                trackedByContainer.put(new ContainerKey(container, containerQueue), tracked = new ArrayList<>());
+
+            // Forget objects whose slot no longer holds a stale reference to them
+            for (Iterator<Tracked> it = tracked.iterator(); it.hasNext(); ) {
+                Tracked t = it.next();
+                Object referent = t.get();
+                if (referent == null || t.slot < size || t.slot >= elements.length || elements[t.slot] != referent) {
+                    release(t);
+                    t.clear();
+                    it.remove();
+                }
+            }
+
+            int stale = elements.length - size;
+            if (stale <= 0) return;
+            int stride = Math.max(1, stale / maxSamples);
+            for (int slot = size; slot < elements.length; slot += stride) {
+                Object o = elements[slot];
+                stats.sampledSlots++;
+                if (o != null && !isTracked(tracked, slot, o)) {
+                    Tracked t = new Tracked(o, queue, stats, slot, shallowSize(o));
+                    tracked.add(t);
+                    stats.track(t.bytes);
+                }
+            }
+        }
+
+        // Snapshot of statistics by container class name
+        public synchronized Map<String, Stats> snapshot() {
+            drainQueue();
+            Map<String, Stats> result = new TreeMap<>();
+            for (Map.Entry<String, Stats> e : statsByClass.entrySet())
+                result.put(e.getKey(), e.getValue().copy());
+            return result;
+        }
+
+        public static final class Stats {
+            private long sampledSlots;
+            private long retainedObjects;
+            private long retainedBytes;
+            private long releasedObjects;
+
+            public long sampledSlots() { return sampledSlots; }
+            public long retainedObjects() { return retainedObjects; }
+            public long retainedBytes() { return retainedBytes; }
+            public long releasedObjects() { return releasedObjects; }
+
+            private void track(long bytes) {
+                retainedObjects++;
+                retainedBytes += bytes;
+            }
+
+            private void untrack(long bytes) {
+                retainedObjects--;
+                retainedBytes -= bytes;
+                releasedObjects++;
+            }
+
+            private Stats copy() {
+                Stats s = new Stats();
+                s.sampledSlots = sampledSlots;
+                s.retainedObjects = retainedObjects;
+                s.retainedBytes = retainedBytes;
+                s.releasedObjects = releasedObjects;
+                return s;
+            }
+
+            @Override
+            public String toString() {
+                return "sampled="+sampledSlots+", retained="+retainedObjects+" ("+retainedBytes+" bytes), released="+releasedObjects;
+            }
+        }
+
+        private static final class Tracked extends WeakReference<Object> {
+            final Stats stats;
+            final int slot;
+            final long bytes;
+            boolean released;
+
+            Tracked(Object referent, ReferenceQueue<Object> queue, Stats stats, int slot, long bytes) {
+                super(referent, queue);
+                this.stats = stats;
+                this.slot = slot;
+                this.bytes = bytes;
+            }
+        }
+
+        /**
+         * Weak key that matches only the same container instance, whatever its equals and hashCode say:
+         * equal containers are tracked separately, and a container stays findable as its contents change.
+         */
+        private static final class ContainerKey extends WeakReference<Object> {
+            private final int hash;
+
+            ContainerKey(Object container, ReferenceQueue<Object> queue) {
+                super(container, queue);
+                hash = System.identityHashCode(container);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (o == this)
+                    return true;
+                if (!(o instanceof ContainerKey))
+                    return false;
+                Object container = get();
+                return container != null && container == ((ContainerKey) o).get();
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+        }
+
+        private void drainQueue() {
+            for (Reference<?> r; (r = containerQueue.poll()) != null; )
+                trackedByContainer.remove(r);
+            for (Reference<?> r; (r = queue.poll()) != null; ) {
+                Tracked t = (Tracked) r;
+                release(t);
+                for (List<Tracked> list : trackedByContainer.values())
+                    if (list.remove(t)) break;
+            }
+        }
+
+        // A tracked object may be released both by a later sample and by the queue; count it once
+        private static void release(Tracked t) {
+            if (!t.released) {
+                t.released = true;
+                t.stats.untrack(t.bytes);
+            }
+        }
+
+        private static boolean isTracked(List<Tracked> tracked, int slot, Object o) {
+            for (Tracked t : tracked)
+                if (t.slot == slot && t.get() == o)
+                    return true;
+            return false;
+        }
+
+        private Stats stats(String className) {
+            Stats s = statsByClass.get(className);
+            if (s == null)
+                statsByClass.put(className, s = new Stats());
+            return s;
+        }
+
+        private long shallowSize(Object o) {
+            Class<?> c = o.getClass();
+            if (c.isArray()) {
+                Class<?> component = c.getComponentType();
+                return align(16 + (long) Array.getLength(o) * fieldSize(component));
+            }
+            Long size = shallowSizes.get(c);
+            if (size == null) {
+                long bytes = 16;
+                for (Class<?> k = c; k != null; k = k.getSuperclass())
+                    for (Field f : k.getDeclaredFields())
+                        if (!Modifier.isStatic(f.getModifiers()))
+                            bytes += fieldSize(f.getType());
+                shallowSizes.put(c, size = align(bytes));
+            }
+            return size;
+        }
+
+        private static long fieldSize(Class<?> type) {
+            if (type == long.class || type == double.class) return 8;
+            if (type == int.class || type == float.class) return 4;
+            if (type == short.class || type == char.class) return 2;
+            if (type == byte.class || type == boolean.class) return 1;
+            return 8;
+        }
+
+        private static long align(long bytes) {
+            return (bytes + 7) & ~7L;
+        }
+
+        private static Field field(Class<?> c, String name) throws NoSuchFieldException {
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                try {
+                    Field f = k.getDeclaredField(name);
+                    f.setAccessible(true);
+                    return f;
+                } catch (NoSuchFieldException e) {
+                    // Try the superclass
+                }
+            }
+            throw new NoSuchFieldException(name);
+        }
+    }
+
+
+
     public static void main(String[] args) {
+        IntStack ints = new IntStack();
+        LongStack longs = new LongStack(1024, 1.5, true);
+        for (int i = 0; i < 1_000_000; i++) {
+            ints.push(i);
+            longs.push(i);
+        }
+        long sum = 0;
+        while (!ints.isEmpty())
+            sum += ints.pop() + longs.pop();
+        System.out.println(sum + ", capacity after popping: " + ints.capacity() + ", " + longs.capacity());
 
+        // Leaky Stack1 vs. corrected Stack2 under the retention monitor
+        RetentionMonitor monitor = new RetentionMonitor(64);
+        Stack1 leaky = new Stack1();
+        Stack2 fixed = new Stack2();
+        for (int i = 0; i < 1_000; i++) {
+            leaky.push(new long[16]);
+            fixed.push(new long[16]);
+        }
+        for (int i = 0; i < 1_000; i++) {
+            leaky.pop();
+            fixed.pop();
+        }
+        monitor.sample(leaky, "elements", "size");
+        monitor.sample(fixed, "elements", "size");
+        System.gc();
+        for (Map.Entry<String, RetentionMonitor.Stats> e : monitor.snapshot().entrySet())
+            System.out.println(e.getKey() + ": " + e.getValue());
     }
 
 }
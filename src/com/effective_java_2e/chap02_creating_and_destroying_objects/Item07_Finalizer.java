@@ -1,5 +1,12 @@
 package com.effective_java_2e.chap02_creating_and_destroying_objects;
 
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Created by sofia on 5/13/17.
  */
@@ -94,6 +101,182 @@ public class Item07_Finalizer {
 
 
 
+    /**
+     * Pool of direct ByteBuffer slabs with an explicit termination method and a Cleaner safety net
+     *
+     * Requests are rounded up to a power-of-two size class between MIN_SLAB_SIZE and maxSlabSize;
+     * larger requests get an unpooled buffer.
+     * Each thread keeps a small cache per size class in front of the shared free lists.
+     *
+     * Clients must close (terminate) every Slab, preferably in a finally block or try-with-resources.
+     * If a Slab becomes unreachable without being closed, the Cleaner counts it as a leak.
+     * The leaked buffer is not returned to the pool, since its client may still hold the ByteBuffer;
+     * it is left to the garbage collector.
+     * java.lang.ref.Cleaner plays the role of the finalizer guardian in Foo3 without the cost of finalization.
+     */
+    public static final class BufferPool implements AutoCloseable {
+        private static final Cleaner CLEANER = Cleaner.create();
+
+        public static final int MIN_SLAB_SIZE = 4096;
+        private static final int THREAD_CACHE_SIZE = 8;     // Per size class
+
+        private final int maxSlabSize;
+        private final ConcurrentLinkedQueue<ByteBuffer>[] freeLists;
+        private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder reused = new LongAdder();
+        private final LongAdder outstanding = new LongAdder();
+        private final LongAdder leaked = new LongAdder();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public BufferPool(int maxSlabSize) {
+            if (maxSlabSize < MIN_SLAB_SIZE || Integer.bitCount(maxSlabSize) != 1)
+                throw new IllegalArgumentException("Max slab size must be a power of two >= "+MIN_SLAB_SIZE+": "+maxSlabSize);
+            this.maxSlabSize = maxSlabSize;
+            final int classes = sizeClass(maxSlabSize) + 1;
+            freeLists = new ConcurrentLinkedQueue[classes];
+            for (int i = 0; i < classes; i++)
+                freeLists[i] = new ConcurrentLinkedQueue<>();
+            threadCaches = new ThreadLocal<ArrayDeque<ByteBuffer>[]>() {
+                @Override
+                protected ArrayDeque<ByteBuffer>[] initialValue() {
+                    ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[classes];
+                    for (int i = 0; i < classes; i++)
+                        caches[i] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+                    return caches;
+                }
+            };
+        }
+
+        // Returns a cleared slab of at least size bytes
+        public Slab acquire(int size) {
+            if (closed.get())
+                throw new IllegalStateException("Pool closed");
+            if (size < 0)
+                throw new IllegalArgumentException("Negative size: "+size);
+
+            ByteBuffer buffer = null;
+            int sizeClass = -1;
+            if (size <= maxSlabSize) {
+                sizeClass = sizeClass(size);
+                buffer = threadCaches.get()[sizeClass].pollFirst();
+                if (buffer == null)
+                    buffer = freeLists[sizeClass].poll();
+            }
+            if (buffer != null) {
+                reused.increment();
+                buffer.clear();
+            } else {
+                allocated.increment();
+                buffer = ByteBuffer.allocateDirect(sizeClass < 0 ? size : MIN_SLAB_SIZE << sizeClass);
+            }
+            outstanding.increment();
+            return new Slab(this, buffer, sizeClass);
+        }
+
+        // Explicit termination method; drops the shared free lists and rejects further acquires.
+        // Buffers in thread-local caches are dropped when their threads end.
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                for (ConcurrentLinkedQueue<ByteBuffer> freeList : freeLists)
+                    freeList.clear();
+            }
+        }
+
+        public void terminate() {
+            close();
+        }
+
+        public long allocatedCount() { return allocated.sum(); }
+        public long reusedCount() { return reused.sum(); }
+        public long outstandingCount() { return outstanding.sum(); }
+        public long leakedCount() { return leaked.sum(); }
+
+        private void release(ByteBuffer buffer, int sizeClass) {
+            outstanding.decrement();
+            if (sizeClass < 0 || closed.get())
+                return;     // Unpooled, or pool terminated - leave the buffer to the collector
+            ArrayDeque<ByteBuffer> cache = threadCaches.get()[sizeClass];
+            if (cache.size() < THREAD_CACHE_SIZE)
+                cache.addFirst(buffer);
+            else
+                freeLists[sizeClass].offer(buffer);
+        }
+
+        private static int sizeClass(int size) {
+            if (size <= MIN_SLAB_SIZE)
+                return 0;
+            return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SLAB_SIZE);
+        }
+
+        /**
+         * A pooled buffer; close returns it to the pool
+         */
+        public static final class Slab implements AutoCloseable {
+            private final BufferPool pool;
+            private final int sizeClass;
+            private final LeakCounter leakCounter;
+            private final Cleaner.Cleanable cleanable;
+            private final AtomicBoolean closed = new AtomicBoolean();
+            private volatile ByteBuffer buffer;
+
+            private Slab(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+                this.pool = pool;
+                this.buffer = buffer;
+                this.sizeClass = sizeClass;
+                this.leakCounter = new LeakCounter(pool);
+                this.cleanable = CLEANER.register(this, leakCounter);
+            }
+
+            public ByteBuffer buffer() {
+                if (buffer == null)
+                    throw new IllegalStateException("Slab closed");
+                return buffer;
+            }
+
+            // Explicit termination method; the buffer must not be used afterwards
+            @Override
+            public void close() {
+                if (!closed.compareAndSet(false, true))
+                    return;     // Only the first close returns the buffer, even if several threads race
+                ByteBuffer b = buffer;
+                buffer = null;
+                leakCounter.closedExplicitly = true;
+                cleanable.clean();   // Deregisters; the action runs now and finds nothing to report
+                pool.release(b, sizeClass);
+            }
+
+            public void terminate() {
+                close();
+            }
+        }
+
+        /*
+         * Cleaning action. Must not refer to the Slab, or the Slab would never become phantom reachable.
+         * Slab.close sets closedExplicitly before cleaning, so only a Slab that was never closed counts as a leak.
+         */
+        private static final class LeakCounter implements Runnable {
+            private final BufferPool pool;
+            private volatile boolean closedExplicitly;
+
+            LeakCounter(BufferPool pool) {
+                this.pool = pool;
+            }
+
+            public void run() {
+                if (!closedExplicitly) {
+                    pool.leaked.increment();
+                    pool.outstanding.decrement();
+                }
+            }
+        }
+    }
+
+
+
     public static void main(String[] args) {
         /**
          * try-finally block guarantees execution of termination method
@@ -104,6 +287,29 @@ public class Item07_Finalizer {
         } finally {
             foo.terminate(); // Explicit termination method
         }
+
+        /**
+         * Pooled direct buffers - explicit termination, with the Cleaner as a safety net
+         */
+        BufferPool pool = new BufferPool(1 << 20);
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                try (BufferPool.Slab slab = pool.acquire(64 * 1024)) {
+                    slab.buffer().putLong(0, i);
+                }
+            }
+            pool.acquire(8192);     // Never closed - a leak the Cleaner will report
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.printf("allocated=%d reused=%d outstanding=%d leaked=%d%n",
+                    pool.allocatedCount(), pool.reusedCount(), pool.outstandingCount(), pool.leakedCount());
+        } finally {
+            pool.terminate();
+        }
     }
 
 }
@@ -1,9 +1,17 @@
 package com.effective_java_2e.chap03_methods_common_to_all_objects;
 
 import java.awt.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * Created by sofia on 5/14/17.
@@ -260,6 +268,412 @@ public class Item08_Equals {
         return unitCircle.contains(p);
     }
 
+    /**
+     * Spatial index over integer points, keyed on Point2 coordinates
+     *
+     * For membership tests and the contains/onUnitCircle pattern at scale, without an object per point.
+     * Points are deduplicated and stored in primitive int arrays; queries return positions in [0, size()),
+     * which x, y and point map back to coordinates.
+     *
+     * contains is a binary search over the points, which are kept sorted by packed coordinates,
+     * so it stays O(log n) however unevenly the points are spread.
+     * Two further structures share the points:
+     * 1. A uniform grid, sized for about TARGET_CELL_OCCUPANCY points per cell on average,
+     *    with an open-addressing directory from packed cell coordinates to a run of points.
+     *    It answers range queries that cover few cells.
+     * 2. An implicit kd-tree (median splits, alternating axes) as the fallback
+     *    for range queries covering more cells than are occupied, and for k-nearest queries.
+     *
+     * Instances are immutable once built and safe for concurrent queries.
+     */
+    public static final class PointIndex {
+        private static final int TARGET_CELL_OCCUPANCY = 4;
+        private static final int SEQUENTIAL_CUTOFF = 1 << 10;  // Queries per task in bulk operations
+
+        // Points, deduplicated, in packed (x, y) order
+        private final int[] xs;
+        private final int[] ys;
+
+        // Grid
+        private final long minX, minY, maxX, maxY;
+        private final long cellSize;
+        private final int[] gridPos;     // Point positions grouped by cell
+        private final long[] cellKeys;
+        private final int[] cellStart;
+        private final int[] cellEnd;     // 0 marks an empty directory slot
+        private final int occupiedCells;
+
+        // kd-tree
+        private final int[] treeX;
+        private final int[] treeY;
+        private final int[] treePos;
+
+        public static PointIndex build(Collection<? extends Point2> points) {
+            int[] x = new int[points.size()];
+            int[] y = new int[points.size()];
+            int i = 0;
+            for (Point2 p : points) {
+                x[i] = p.x;
+                y[i++] = p.y;
+            }
+            return new PointIndex(x, y);
+        }
+
+        public static PointIndex build(int[] x, int[] y) {
+            if (x.length != y.length)
+                throw new IllegalArgumentException("Coordinate arrays differ in length: "+x.length+" != "+y.length);
+            return new PointIndex(x, y);
+        }
+
+        private PointIndex(int[] x, int[] y) {
+            // Deduplicate by sorting packed coordinates
+            long[] packed = new long[x.length];
+            for (int i = 0; i < x.length; i++)
+                packed[i] = pack(x[i], y[i]);
+            Arrays.parallelSort(packed);
+            int n = 0;
+            for (int i = 0; i < packed.length; i++)
+                if (i == 0 || packed[i] != packed[i - 1])
+                    packed[n++] = packed[i];
+            xs = new int[n];
+            ys = new int[n];
+            long loX = Long.MAX_VALUE, loY = Long.MAX_VALUE, hiX = Long.MIN_VALUE, hiY = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                xs[i] = (int) (packed[i] >> 32);
+                ys[i] = (int) packed[i];
+                loX = Math.min(loX, xs[i]);
+                loY = Math.min(loY, ys[i]);
+                hiX = Math.max(hiX, xs[i]);
+                hiY = Math.max(hiY, ys[i]);
+            }
+            minX = loX;
+            minY = loY;
+            maxX = hiX;
+            maxY = hiY;
+
+            // Grid - counting pass, prefix sums over the directory, then scatter
+            double area = n == 0 ? 1 : (double) (maxX - minX + 1) * (maxY - minY + 1);
+            cellSize = Math.max(1, (long) Math.ceil(Math.sqrt(area * TARGET_CELL_OCCUPANCY / Math.max(1, n))));
+            int capacity = Integer.highestOneBit(Math.max(2, 2 * n - 1)) << 1;
+            cellKeys = new long[capacity];
+            cellStart = new int[capacity];
+            cellEnd = new int[capacity];
+            int[] slotOf = new int[n];
+            int cells = 0;
+            for (int i = 0; i < n; i++) {
+                long key = cellKey(xs[i], ys[i]);
+                int slot = slot(key);
+                if (cellEnd[slot] == 0) {
+                    cellKeys[slot] = key;
+                    cells++;
+                }
+                cellEnd[slot]++;    // Count for now
+                slotOf[i] = slot;
+            }
+            occupiedCells = cells;
+            int offset = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (cellEnd[slot] != 0) {
+                    cellStart[slot] = offset;
+                    offset += cellEnd[slot];
+                    cellEnd[slot] = cellStart[slot];    // Fill pointer until scatter completes
+                }
+            }
+            gridPos = new int[n];
+            for (int i = 0; i < n; i++)
+                gridPos[cellEnd[slotOf[i]]++] = i;
+
+            // kd-tree
+            treeX = xs.clone();
+            treeY = ys.clone();
+            treePos = new int[n];
+            for (int i = 0; i < n; i++)
+                treePos[i] = i;
+            buildTree(0, n, 0);
+        }
+
+        public int size() { return xs.length; }
+        public int x(int pos) { return xs[pos]; }
+        public int y(int pos) { return ys[pos]; }
+        public Point2 point(int pos) { return new Point2(xs[pos], ys[pos]); }
+
+        public boolean contains(Point2 p) {
+            return contains(p.x, p.y);
+        }
+
+        public boolean contains(int x, int y) {
+            if (x < minX || x > maxX || y < minY || y > maxY)
+                return false;
+            // Not the grid: clustered points with a few distant outliers can pile millions into one cell
+            long key = pack(x, y);
+            int lo = 0;
+            int hi = xs.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long k = pack(xs[mid], ys[mid]);
+                if (k < key)
+                    lo = mid + 1;
+                else if (k > key)
+                    hi = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+
+        // Positions of all points in the rectangle [x0, x1] x [y0, y1], in no particular order
+        public int[] range(int x0, int y0, int x1, int y1) {
+            IntList result = new IntList();
+            long lx = Math.max(x0, minX), ly = Math.max(y0, minY);
+            long hx = Math.min(x1, maxX), hy = Math.min(y1, maxY);
+            if (lx > hx || ly > hy)
+                return result.toArray();
+
+            long cx0 = (lx - minX) / cellSize, cx1 = (hx - minX) / cellSize;
+            long cy0 = (ly - minY) / cellSize, cy1 = (hy - minY) / cellSize;
+            if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) <= occupiedCells) {
+                for (long cx = cx0; cx <= cx1; cx++) {
+                    for (long cy = cy0; cy <= cy1; cy++) {
+                        int slot = find((cx << 32) | cy);
+                        if (slot < 0) continue;
+                        for (int i = cellStart[slot]; i < cellEnd[slot]; i++) {
+                            int pos = gridPos[i];
+                            if (xs[pos] >= lx && xs[pos] <= hx && ys[pos] >= ly && ys[pos] <= hy)
+                                result.add(pos);
+                        }
+                    }
+                }
+            } else {
+                treeRange(0, xs.length, 0, lx, ly, hx, hy, result);
+            }
+            return result.toArray();
+        }
+
+        // Positions of the k points nearest to (x, y), nearest first; fewer if the index holds fewer than k
+        public int[] nearest(int x, int y, int k) {
+            if (k < 0)
+                throw new IllegalArgumentException("Negative k: "+k);
+            Neighbors neighbors = new Neighbors(Math.min(k, xs.length));
+            if (neighbors.capacity > 0)
+                treeNearest(0, xs.length, 0, x, y, neighbors);
+            return neighbors.sorted();
+        }
+
+        // Bulk membership test; queries are split across the common ForkJoinPool
+        public boolean[] containsAll(final int[] x, final int[] y) {
+            final boolean[] result = new boolean[x.length];
+            parallelFor(x.length, new IntConsumer() {
+                public void accept(int i) {
+                    result[i] = contains(x[i], y[i]);
+                }
+            });
+            return result;
+        }
+
+        public int[][] nearestAll(final int[] x, final int[] y, final int k) {
+            final int[][] result = new int[x.length][];
+            parallelFor(x.length, new IntConsumer() {
+                public void accept(int i) {
+                    result[i] = nearest(x[i], y[i], k);
+                }
+            });
+            return result;
+        }
+
+        private static long pack(int x, int y) {
+            return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
+
+        // Cell coordinates are non-negative and below 2^32, so they pack without sign extension
+        private long cellKey(int x, int y) {
+            return ((x - minX) / cellSize << 32) | ((y - minY) / cellSize);
+        }
+
+        private int slot(long key) {
+            int mask = cellKeys.length - 1;
+            int slot = mix(key) & mask;
+            while (cellEnd[slot] != 0 && cellKeys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private int find(long key) {
+            int slot = slot(key);
+            return cellEnd[slot] != 0 ? slot : -1;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private void buildTree(int lo, int hi, int depth) {
+            if (hi - lo <= 1)
+                return;
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, (depth & 1) == 0);
+            buildTree(lo, mid, depth + 1);
+            buildTree(mid + 1, hi, depth + 1);
+        }
+
+        // Quickselect: moves the point of rank k in [lo, hi] on the given axis to position k
+        private void select(int lo, int hi, int k, boolean byX) {
+            int[] key = byX ? treeX : treeY;
+            while (lo < hi) {
+                int pivot = key[(lo + hi) >>> 1];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (key[i] < pivot) i++;
+                    while (key[j] > pivot) j--;
+                    if (i <= j)
+                        swap(i++, j--);
+                }
+                if (k <= j) hi = j;
+                else if (k >= i) lo = i;
+                else return;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int t = treeX[i]; treeX[i] = treeX[j]; treeX[j] = t;
+            t = treeY[i]; treeY[i] = treeY[j]; treeY[j] = t;
+            t = treePos[i]; treePos[i] = treePos[j]; treePos[j] = t;
+        }
+
+        private void treeRange(int lo, int hi, int depth, long x0, long y0, long x1, long y1, IntList result) {
+            if (lo >= hi)
+                return;
+            int mid = (lo + hi) >>> 1;
+            int x = treeX[mid], y = treeY[mid];
+            if (x >= x0 && x <= x1 && y >= y0 && y <= y1)
+                result.add(treePos[mid]);
+            boolean byX = (depth & 1) == 0;
+            long split = byX ? x : y;
+            if ((byX ? x0 : y0) <= split)
+                treeRange(lo, mid, depth + 1, x0, y0, x1, y1, result);
+            if ((byX ? x1 : y1) >= split)
+                treeRange(mid + 1, hi, depth + 1, x0, y0, x1, y1, result);
+        }
+
+        private void treeNearest(int lo, int hi, int depth, int qx, int qy, Neighbors neighbors) {
+            if (lo >= hi)
+                return;
+            int mid = (lo + hi) >>> 1;
+            double dx = (double) treeX[mid] - qx, dy = (double) treeY[mid] - qy;
+            neighbors.offer(treePos[mid], dx * dx + dy * dy);
+
+            double diff = (depth & 1) == 0 ? -dx : -dy;     // Query minus split coordinate
+            boolean leftFirst = diff < 0;
+            if (leftFirst) treeNearest(lo, mid, depth + 1, qx, qy, neighbors);
+            else treeNearest(mid + 1, hi, depth + 1, qx, qy, neighbors);
+            if (diff * diff <= neighbors.worst()) {
+                if (leftFirst) treeNearest(mid + 1, hi, depth + 1, qx, qy, neighbors);
+                else treeNearest(lo, mid, depth + 1, qx, qy, neighbors);
+            }
+        }
+
+        private static void parallelFor(int n, final IntConsumer body) {
+            class Range extends RecursiveAction {
+                private static final long serialVersionUID = 1L;
+
+                final int from, to;
+
+                Range(int from, int to) {
+                    this.from = from;
+                    this.to = to;
+                }
+
+                @Override
+                protected void compute() {
+                    if (to - from <= SEQUENTIAL_CUTOFF) {
+                        for (int i = from; i < to; i++)
+                            body.accept(i);
+                    } else {
+                        int mid = (from + to) >>> 1;
+                        invokeAll(new Range(from, mid), new Range(mid, to));
+                    }
+                }
+            }
+            if (n <= SEQUENTIAL_CUTOFF)
+                new Range(0, n).compute();
+            else
+                ForkJoinPool.commonPool().invoke(new Range(0, n));
+        }
+
+        // Bounded max-heap of (position, squared distance) for k-nearest queries
+        private static final class Neighbors {
+            final int capacity;
+            final int[] pos;
+            final double[] dist;
+            int size;
+
+            Neighbors(int capacity) {
+                this.capacity = capacity;
+                pos = new int[capacity];
+                dist = new double[capacity];
+            }
+
+            double worst() {
+                return size < capacity ? Double.POSITIVE_INFINITY : dist[0];
+            }
+
+            void offer(int p, double d) {
+                if (size < capacity) {
+                    int i = size++;
+                    while (i > 0 && dist[(i - 1) / 2] < d) {
+                        pos[i] = pos[(i - 1) / 2];
+                        dist[i] = dist[(i - 1) / 2];
+                        i = (i - 1) / 2;
+                    }
+                    pos[i] = p;
+                    dist[i] = d;
+                } else if (d < dist[0]) {
+                    siftDown(0, p, d, size);
+                }
+            }
+
+            private void siftDown(int i, int p, double d, int n) {
+                while (2 * i + 1 < n) {
+                    int c = 2 * i + 1;
+                    if (c + 1 < n && dist[c + 1] > dist[c]) c++;
+                    if (dist[c] <= d) break;
+                    pos[i] = pos[c];
+                    dist[i] = dist[c];
+                    i = c;
+                }
+                pos[i] = p;
+                dist[i] = d;
+            }
+
+            // Empties the heap, nearest first
+            int[] sorted() {
+                int[] result = new int[size];
+                for (int n = size; n > 0; n--) {
+                    result[n - 1] = pos[0];
+                    siftDown(0, pos[n - 1], dist[n - 1], n - 1);
+                }
+                size = 0;
+                return result;
+            }
+        }
+    }
+
+    // Growable int array for query results
+    private static final class IntList {
+        private int[] elements = new int[16];
+        private int size = 0;
+
+        void add(int e) {
+            if (size == elements.length)
+                elements = Arrays.copyOf(elements, 2 * size);
+            elements[size++] = e;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(elements, size);
+        }
+    }
+
     /**
      * Class that adds a value component without violating the equals contract
      */
@@ -288,6 +702,311 @@ public class Item08_Equals {
         }
     }
 
+    /**
+     * Packed primitive point set and color-point map
+     *
+     * Each point is one long, x in the high 32 bits and y in the low 32 bits, in an open-addressing table
+     * with linear probing, so there is no object, header or Point1 per point.
+     * Point1 and ColorPoint3 are converted at the edges only.
+     *
+     * The set reserves no key: the packed value that marks an empty slot is tracked in a separate flag.
+     * The map stores each color as a one-byte index into a palette of at most 255 distinct colors
+     * in a parallel byte array; index 0 marks an empty slot.
+     *
+     * Neither class is thread-safe.
+     */
+    public static final class PackedPointSet {
+        private static final long EMPTY = 0L;       // Packed (0, 0)
+        private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+        private long[] keys;
+        private boolean containsEmptyKey;
+        private int size;
+
+        public PackedPointSet() {
+            this(DEFAULT_INITIAL_CAPACITY);
+        }
+
+        public PackedPointSet(int expectedSize) {
+            keys = new long[tableSizeFor(expectedSize)];
+        }
+
+        public static long pack(int x, int y) {
+            return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
+
+        public static int x(long packed) { return (int) (packed >> 32); }
+        public static int y(long packed) { return (int) packed; }
+
+        public static Point1 toPoint1(long packed) {
+            return new Point1(x(packed), y(packed));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean add(Point1 p) {
+            return add(p.x, p.y);
+        }
+
+        public boolean add(int x, int y) {
+            long key = pack(x, y);
+            if (key == EMPTY) {
+                if (containsEmptyKey) return false;
+                containsEmptyKey = true;
+                size++;
+                return true;
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            for (long k; (k = keys[slot]) != EMPTY; slot = (slot + 1) & mask)
+                if (k == key) return false;
+            if (size >= maxFill(keys.length)) {
+                rehash(grow(keys.length));
+                mask = keys.length - 1;
+                slot = hash(key) & mask;
+                while (keys[slot] != EMPTY)
+                    slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            size++;
+            return true;
+        }
+
+        public boolean contains(Point1 p) {
+            return contains(p.x, p.y);
+        }
+
+        public boolean contains(int x, int y) {
+            long key = pack(x, y);
+            if (key == EMPTY)
+                return containsEmptyKey;
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long k = keys[slot];
+                if (k == key) return true;
+                if (k == EMPTY) return false;
+            }
+        }
+
+        public boolean remove(int x, int y) {
+            long key = pack(x, y);
+            if (key == EMPTY) {
+                if (!containsEmptyKey) return false;
+                containsEmptyKey = false;
+                size--;
+                return true;
+            }
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long k = keys[slot];
+                if (k == EMPTY) return false;
+                if (k == key) {
+                    shiftBack(slot);
+                    size--;
+                    return true;
+                }
+            }
+        }
+
+        // Packed points in table order
+        public long[] toPackedArray() {
+            long[] result = new long[size];
+            int n = 0;
+            if (containsEmptyKey)
+                result[n++] = EMPTY;
+            for (long k : keys)
+                if (k != EMPTY)
+                    result[n++] = k;
+            return result;
+        }
+
+        // Backward-shift deletion: pulls later entries of the probe run into the hole, so no tombstones are needed
+        private void shiftBack(int hole) {
+            int mask = keys.length - 1;
+            for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = EMPTY;
+        }
+
+        private void rehash(int capacity) {
+            long[] old = keys;
+            keys = new long[capacity];
+            int mask = capacity - 1;
+            for (long k : old) {
+                if (k == EMPTY) continue;
+                int slot = hash(k) & mask;
+                while (keys[slot] != EMPTY)
+                    slot = (slot + 1) & mask;
+                keys[slot] = k;
+            }
+        }
+    }
+
+    public static final class PackedColorPointMap {
+        private static final int DEFAULT_INITIAL_CAPACITY = 16;
+        private static final int MAX_COLORS = 255;
+
+        private long[] keys;
+        private byte[] colors;      // Palette index + 1; 0 marks an empty slot
+        private int size;
+
+        private final Color[] palette = new Color[MAX_COLORS];
+        private final Map<Color, Integer> paletteIndex = new HashMap<>();
+
+        public PackedColorPointMap() {
+            this(DEFAULT_INITIAL_CAPACITY);
+        }
+
+        public PackedColorPointMap(int expectedSize) {
+            int capacity = tableSizeFor(expectedSize);
+            keys = new long[capacity];
+            colors = new byte[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Color put(ColorPoint3 cp) {
+            return put(cp.point.x, cp.point.y, cp.color);
+        }
+
+        // Returns the previous color at (x, y), or null
+        public Color put(int x, int y, Color color) {
+            byte code = code(color);
+            long key = PackedPointSet.pack(x, y);
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            for (; colors[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    Color previous = palette[(colors[slot] & 0xFF) - 1];
+                    colors[slot] = code;
+                    return previous;
+                }
+            }
+            if (size >= maxFill(keys.length)) {
+                rehash(grow(keys.length));
+                mask = keys.length - 1;
+                slot = hash(key) & mask;
+                while (colors[slot] != 0)
+                    slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            colors[slot] = code;
+            size++;
+            return null;
+        }
+
+        public Color get(int x, int y) {
+            int slot = find(PackedPointSet.pack(x, y));
+            return slot < 0 ? null : palette[(colors[slot] & 0xFF) - 1];
+        }
+
+        public boolean containsKey(Point1 p) {
+            return find(PackedPointSet.pack(p.x, p.y)) >= 0;
+        }
+
+        public ColorPoint3 getColorPoint(int x, int y) {
+            Color color = get(x, y);
+            return color == null ? null : new ColorPoint3(x, y, color);
+        }
+
+        public Color remove(int x, int y) {
+            int slot = find(PackedPointSet.pack(x, y));
+            if (slot < 0)
+                return null;
+            Color previous = palette[(colors[slot] & 0xFF) - 1];
+            shiftBack(slot);
+            size--;
+            return previous;
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; colors[slot] != 0; slot = (slot + 1) & mask)
+                if (keys[slot] == key)
+                    return slot;
+            return -1;
+        }
+
+        private byte code(Color color) {
+            if (color == null)
+                throw new NullPointerException();
+            Integer index = paletteIndex.get(color);
+            if (index == null) {
+                if (paletteIndex.size() == MAX_COLORS)
+                    throw new IllegalStateException("More than "+MAX_COLORS+" distinct colors");
+                index = paletteIndex.size();
+                palette[index] = color;
+                paletteIndex.put(color, index);
+            }
+            return (byte) (index + 1);
+        }
+
+        private void shiftBack(int hole) {
+            int mask = keys.length - 1;
+            for (int j = (hole + 1) & mask; colors[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    colors[hole] = colors[j];
+                    hole = j;
+                }
+            }
+            colors[hole] = 0;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            byte[] oldColors = colors;
+            keys = new long[capacity];
+            colors = new byte[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldColors[i] == 0) continue;
+                int slot = hash(oldKeys[i]) & mask;
+                while (colors[slot] != 0)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                colors[slot] = oldColors[i];
+            }
+        }
+    }
+
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    // Power-of-two table size that holds expectedSize entries at a load factor of 3/4
+    private static int tableSizeFor(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Negative size: "+expectedSize);
+        long needed = Math.max(4, (long) expectedSize * 4 / 3 + 1);
+        if (needed > MAX_TABLE_SIZE)
+            throw new IllegalArgumentException("Too many entries: "+expectedSize);
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    private static int maxFill(int capacity) {
+        return capacity / 4 * 3;
+    }
+
+    private static int grow(int capacity) {
+        if (capacity == MAX_TABLE_SIZE)
+            throw new IllegalStateException("Table full: "+maxFill(capacity)+" entries");
+        return capacity << 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
     /**
      * Class with equals method that includes unnecessary null check
      */
@@ -316,7 +1035,32 @@ public class Item08_Equals {
 
 
     public static void main(String[] args) {
+        int n = 1_000_000;
+        int[] x = new int[n];
+        int[] y = new int[n];
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextInt(100_000) - 50_000;
+            y[i] = random.nextInt(100_000) - 50_000;
+        }
+        x[0] = 1;
+        y[0] = 0;
+        PointIndex index = PointIndex.build(x, y);
+        System.out.println("contains (1, 0): " + index.contains(new Point2(1, 0)));
+        System.out.println("in [-1000, 1000]^2: " + index.range(-1000, -1000, 1000, 1000).length);
+        for (int pos : index.nearest(0, 0, 3))
+            System.out.println("near origin: (" + index.x(pos) + ", " + index.y(pos) + ")");
+        boolean[] found = index.containsAll(x, y);
+        int hits = 0;
+        for (boolean f : found)
+            if (f) hits++;
+        System.out.println("bulk contains: " + hits + " of " + n);
 
+        PackedColorPointMap colored = new PackedColorPointMap(n);
+        for (int i = 0; i < n; i++)
+            colored.put(x[i], y[i], (i & 1) == 0 ? Color.RED : Color.BLUE);
+        colored.put(new ColorPoint3(1, 0, Color.GREEN));
+        System.out.println("packed map: " + colored.size() + " points, (1, 0) is " + colored.get(1, 0));
     }
 
 }
@@ -1,5 +1,24 @@
 package com.effective_java_2e.chap03_methods_common_to_all_objects;
 
+import com.effective_java_2e.chap04_classes_and_interfaces.Item15_Mutability.Complex1;
+import com.effective_java_2e.chap04_classes_and_interfaces.Item15_Mutability.Interner;
+import com.effective_java_2e.chap06_enums_and_annotations.Item36_Override.Bigram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
 /**
  * Created by sofia on 5/14/17.
  */
@@ -164,13 +183,20 @@ public class Item09_HashCode {
                 throw new IllegalArgumentException(name+": "+arg);
         }
 
+        // Canonicalizing static factory - equal numbers share one instance
+        private static final Interner<PhoneNumber3> CANONICAL = Interner.weak(16);
+
+        public static PhoneNumber3 valueOf(int areaCode, int prefix, int lineNumber) {
+            return CANONICAL.intern(new PhoneNumber3(areaCode, prefix, lineNumber));
+        }
+
         @Override
         public boolean equals(Object o) {
             if (o == this)
                 return true;
-            if (!(o instanceof PhoneNumber1))
+            if (!(o instanceof PhoneNumber3))
                 return false;
-            PhoneNumber1 pn = (PhoneNumber1)o;
+            PhoneNumber3 pn = (PhoneNumber3)o;
             return pn.lineNumber == lineNumber
                     && pn.prefix == prefix
                     && pn.areaCode == areaCode;
@@ -193,8 +219,386 @@ public class Item09_HashCode {
 
 
 
-    public static void main(String[] args) {
+    /**
+     * Phone number packed into a long
+     *
+     * The key is areaCode * 10^7 + prefix * 10^4 + lineNumber, i.e. the ten digits read as one decimal number.
+     * It needs 34 bits, so it does not fit an int.
+     * Numeric order of keys is the same as ordering by area code, then prefix, then line number.
+     */
+    public static final class PackedPhoneNumbers {
+        private PackedPhoneNumbers() {} // Prevents instantiation
+
+        public static final long MAX_KEY = 9_999_999_999L;
+
+        public static long pack(int areaCode, int prefix, int lineNumber) {
+            rangeCheck(areaCode, 999, "area code");
+            rangeCheck(prefix, 999, "prefix");
+            rangeCheck(lineNumber, 9999, "line number");
+            return areaCode * 10_000_000L + prefix * 10_000L + lineNumber;
+        }
+
+        public static long pack(PhoneNumber3 pn) {
+            return pack(pn.areaCode, pn.prefix, pn.lineNumber);
+        }
+
+        public static int areaCode(long key) { return (int) (key / 10_000_000L); }
+        public static int prefix(long key) { return (int) (key / 10_000L % 1_000L); }
+        public static int lineNumber(long key) { return (int) (key % 10_000L); }
+
+        public static PhoneNumber3 toPhoneNumber(long key) {
+            return new PhoneNumber3(areaCode(key), prefix(key), lineNumber(key));
+        }
+
+        /**
+         * Parses the fourteen-character form "(XXX) YYY-ZZZZ" at the start of s
+         * without creating substrings.
+         */
+        public static long parse(CharSequence s) {
+            if (s.length() < 14 || s.charAt(0) != '(' || s.charAt(4) != ')' || s.charAt(5) != ' ' || s.charAt(9) != '-')
+                throw new IllegalArgumentException("Not a phone number: "+s);
+            return digits(s, 1, 4) * 10_000_000L + digits(s, 6, 9) * 10_000L + digits(s, 10, 14);
+        }
+
+        private static int digits(CharSequence s, int from, int to) {
+            int result = 0;
+            for (int i = from; i < to; i++) {
+                int d = s.charAt(i) - '0';
+                if (d < 0 || d > 9)
+                    throw new IllegalArgumentException("Not a phone number: "+s);
+                result = 10 * result + d;
+            }
+            return result;
+        }
+
+        private static void rangeCheck(int arg, int max, String name) {
+            if (arg < 0 || arg > max)
+                throw new IllegalArgumentException(name+": "+arg);
+        }
+    }
+
+    /**
+     * Directory from packed phone numbers to values
+     *
+     * Open addressing with linear probing over a long[] of keys and a parallel Object[] of values:
+     * no boxed keys and no entry objects. Not thread-safe; null values are not permitted.
+     */
+    public static final class PhoneDirectory<V> {
+        private static final long EMPTY = -1L;      // Never a valid key
+        private static final int MAX_CAPACITY = 1 << 30;
+
+        private long[] keys;
+        private Object[] values;
+        private int size;
+
+        public PhoneDirectory(int expectedSize) {
+            if (expectedSize < 0)
+                throw new IllegalArgumentException("Negative size: "+expectedSize);
+            long needed = Math.max(4, (long) expectedSize * 4 / 3 + 1);
+            if (needed > MAX_CAPACITY)
+                throw new IllegalArgumentException("Too many entries: "+expectedSize);
+            allocate(Integer.highestOneBit((int) needed - 1) << 1);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Returns the previous value for key, or null
+        public V put(long key, V value) {
+            if (!isKey(key))
+                throw new IllegalArgumentException("Not a packed phone number: "+key);
+            if (value == null)
+                throw new NullPointerException();
+            int slot = slot(key);
+            if (keys[slot] == key) {
+                @SuppressWarnings("unchecked") V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if (size >= keys.length / 4 * 3) {
+                if (keys.length == MAX_CAPACITY)
+                    throw new IllegalStateException("Directory full: "+size);
+                rehash(keys.length << 1);
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+            return null;
+        }
+
+        public V get(long key) {
+            if (!isKey(key))
+                return null;
+            @SuppressWarnings("unchecked") V value = (V) values[slot(key)];
+            return value;   // Null for an empty slot
+        }
+
+        public boolean containsKey(long key) {
+            return isKey(key) && keys[slot(key)] == key;
+        }
+
+        // Also keeps EMPTY away from slot, which would find an empty slot "holding" it
+        private static boolean isKey(long key) {
+            return key >= 0 && key <= PackedPhoneNumbers.MAX_KEY;
+        }
+
+        /**
+         * Loads lines of the form "(XXX) YYY-ZZZZ value" - a number in PhoneNumber.toString form,
+         * one separator character, and the text that valueParser turns into the value.
+         * Blank lines are skipped. Returns the number of entries loaded.
+         */
+        public int load(BufferedReader in, Function<String, ? extends V> valueParser) throws IOException {
+            int count = 0;
+            for (String line; (line = in.readLine()) != null; ) {
+                if (line.isEmpty()) continue;
+                long key = PackedPhoneNumbers.parse(line);
+                put(key, valueParser.apply(line.length() > 15 ? line.substring(15) : ""));
+                count++;
+            }
+            return count;
+        }
+
+        public interface Visitor<V> {
+            void visit(long key, V value);
+        }
+
+        // Visits all entries in increasing numeric order of their keys
+        public void forEachInOrder(Visitor<? super V> visitor) {
+            long[] sorted = new long[size];
+            int n = 0;
+            for (long k : keys)
+                if (k != EMPTY)
+                    sorted[n++] = k;
+            Arrays.parallelSort(sorted);
+            for (long k : sorted)
+                visitor.visit(k, get(k));
+        }
+
+        // Slot holding key, or the empty slot where it would go
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            for (long k; (k = keys[slot]) != key && k != EMPTY; )
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new Object[capacity];
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == EMPTY) continue;
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Hash quality analyzer
+     *
+     * Feeds a key population through a hash function and reports how it would spread over a HashMap table:
+     * the table is sized as HashMap would size it for that many keys, and hashes are spread as HashMap spreads them.
+     *
+     * Reported figures:
+     * - distinct hashes: fewer than keys means full 32-bit collisions, which no table size can separate
+     * - empty buckets, longest chain, and average probes per successful lookup
+     *   (1.0 is perfect; a uniformly random hash gives about 1 + load / 2)
+     * - avalanche: given a neighbor function that makes a minimally different key,
+     *   the mean fraction of hash bits that flip between a key and its neighbor (0.5 is ideal)
+     */
+    public static final class HashQuality {
+        private HashQuality() {} // Prevents instantiation
+
+        public static <T> Report analyze(Iterable<? extends T> keys, ToIntFunction<? super T> hash,
+                                         UnaryOperator<T> neighbor) {
+            List<Integer> hashes = new ArrayList<>();
+            Set<Integer> distinct = new HashSet<>();
+            long flippedBits = 0;
+            long pairs = 0;
+            for (T key : keys) {
+                int h = hash.applyAsInt(key);
+                hashes.add(h);
+                distinct.add(h);
+                if (neighbor != null) {
+                    T next = neighbor.apply(key);
+                    if (next != null) {
+                        flippedBits += Integer.bitCount(h ^ hash.applyAsInt(next));
+                        pairs++;
+                    }
+                }
+            }
+
+            int n = hashes.size();
+            int tableSize = tableSizeFor(n);
+            int[] chains = new int[tableSize];
+            for (int h : hashes)
+                chains[(h ^ (h >>> 16)) & (tableSize - 1)]++;
+            int empty = 0;
+            int longest = 0;
+            long probes = 0;
+            for (int c : chains) {
+                if (c == 0) empty++;
+                longest = Math.max(longest, c);
+                probes += (long) c * (c + 1) / 2;   // i-th key in a chain takes i probes
+            }
+            return new Report(n, distinct.size(), tableSize, empty, longest,
+                    n == 0 ? 0 : (double) probes / n,
+                    pairs == 0 ? Double.NaN : (double) flippedBits / (32.0 * pairs));
+        }
+
+        public static <T> Report analyze(Iterable<? extends T> keys, UnaryOperator<T> neighbor) {
+            return analyze(keys, new ToIntFunction<T>() {
+                public int applyAsInt(T key) {
+                    return key.hashCode();
+                }
+            }, neighbor);
+        }
+
+        // Smallest power of two holding n keys at HashMap's default load factor
+        private static int tableSizeFor(int n) {
+            int needed = (int) Math.ceil(n / 0.75);
+            return Math.max(16, Integer.highestOneBit(Math.max(1, needed - 1)) << 1);
+        }
+
+        public static final class Report {
+            private final int keys;
+            private final int distinctHashes;
+            private final int tableSize;
+            private final int emptyBuckets;
+            private final int longestChain;
+            private final double averageProbes;
+            private final double avalanche;
 
+            private Report(int keys, int distinctHashes, int tableSize, int emptyBuckets,
+                           int longestChain, double averageProbes, double avalanche) {
+                this.keys = keys;
+                this.distinctHashes = distinctHashes;
+                this.tableSize = tableSize;
+                this.emptyBuckets = emptyBuckets;
+                this.longestChain = longestChain;
+                this.averageProbes = averageProbes;
+                this.avalanche = avalanche;
+            }
+
+            public int keys() { return keys; }
+            public int distinctHashes() { return distinctHashes; }
+            public int tableSize() { return tableSize; }
+            public int emptyBuckets() { return emptyBuckets; }
+            public int longestChain() { return longestChain; }
+            public double averageProbes() { return averageProbes; }
+            public double avalanche() { return avalanche; }
+
+            @Override
+            public String toString() {
+                return String.format("keys=%d distinct=%d table=%d empty=%.1f%% longest=%d probes=%.2f avalanche=%.3f",
+                        keys, distinctHashes, tableSize, 100.0 * emptyBuckets / tableSize,
+                        longestChain, averageProbes, avalanche);
+            }
+        }
+    }
+
+    /**
+     * Lookup cost of each hashCode recipe in a HashMap built from the same population
+     */
+    private static <T> void timeLookups(String label, List<T> keys) {
+        Map<T, Integer> map = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++)
+            map.put(keys.get(i), i);
+
+        // Looks up the key instances themselves: PhoneNumber2.equals compares against PhoneNumber1,
+        // so only identical instances are found
+        long sum = 0;
+        int rounds = Math.max(1, 2_000_000 / keys.size());
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (T key : keys)
+                sum += map.get(key);
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-12s %6.1f ns/lookup (%d)%n", label, (double) nanos / ((long) rounds * keys.size()), sum);
+    }
+
+
+
+    public static void main(String[] args) throws IOException {
+        PhoneDirectory<String> directory = new PhoneDirectory<>(16);
+        String text = "(707) 867-5309 Jenny\n(212) 555-0100 Operator\n(415) 555-2671 Office\n";
+        directory.load(new BufferedReader(new StringReader(text)), Function.<String>identity());
+        directory.put(PackedPhoneNumbers.pack(new PhoneNumber3(201, 555, 12)), "Desk");
+        directory.forEachInOrder(new PhoneDirectory.Visitor<String>() {
+            public void visit(long key, String value) {
+                System.out.printf("(%03d) %03d-%04d %s%n", PackedPhoneNumbers.areaCode(key),
+                        PackedPhoneNumbers.prefix(key), PackedPhoneNumbers.lineNumber(key), value);
+            }
+        });
+
+        // Hash quality of the hashCode recipes on realistic populations
+        Random random = new Random(42);
+        List<PhoneNumber2> phones2 = new ArrayList<>();
+        List<PhoneNumber3> phones3 = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            int area = 200 + random.nextInt(20);    // A handful of area codes, as in a regional directory
+            int prefix = 200 + random.nextInt(800);
+            int line = random.nextInt(10_000);
+            phones2.add(new PhoneNumber2(area, prefix, line));
+            phones3.add(new PhoneNumber3(area, prefix, line));
+        }
+        List<Bigram> bigrams = new ArrayList<>();
+        final Map<Bigram, Bigram> nextBigram = new HashMap<>();   // Bigram has no accessors
+        for (char first = 'a'; first <= 'z'; first++) {
+            for (char second = 'a'; second <= 'z'; second++) {
+                bigrams.add(new Bigram(first, second));
+                if (second < 'z')
+                    nextBigram.put(new Bigram(first, second), new Bigram(first, (char) (second + 1)));
+            }
+        }
+        List<Complex1> complexes = new ArrayList<>();
+        for (int re = 0; re < 300; re++)
+            for (int im = 0; im < 300; im++)
+                complexes.add(new Complex1(re, im));
+
+        System.out.println("PhoneNumber2 " + HashQuality.analyze(phones2, new UnaryOperator<PhoneNumber2>() {
+            public PhoneNumber2 apply(PhoneNumber2 pn) {
+                return pn.lineNumber < 9999 ? new PhoneNumber2(pn.areaCode, pn.prefix, pn.lineNumber + 1) : null;
+            }
+        }));
+        System.out.println("PhoneNumber3 " + HashQuality.analyze(phones3, new UnaryOperator<PhoneNumber3>() {
+            public PhoneNumber3 apply(PhoneNumber3 pn) {
+                return pn.lineNumber < 9999 ? new PhoneNumber3(pn.areaCode, pn.prefix, pn.lineNumber + 1) : null;
+            }
+        }));
+        System.out.println("Bigram       " + HashQuality.analyze(bigrams, new UnaryOperator<Bigram>() {
+            public Bigram apply(Bigram b) {
+                return nextBigram.get(b);
+            }
+        }));
+        System.out.println("Complex1     " + HashQuality.analyze(complexes, new UnaryOperator<Complex1>() {
+            public Complex1 apply(Complex1 c) {
+                return new Complex1(c.realPart(), c.imaginaryPart() + 1);
+            }
+        }));
+
+        for (int round = 0; round < 2; round++) {   // First round warms up the JIT
+            timeLookups("PhoneNumber2", phones2);
+            timeLookups("PhoneNumber3", phones3);
+            timeLookups("Bigram", bigrams);
+            timeLookups("Complex1", complexes);
+        }
     }
 
 }
@@ -1,7 +1,20 @@
 package com.effective_java_2e.chap03_methods_common_to_all_objects;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.EmptyStackException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by sofia on 5/14/17.
@@ -155,6 +168,122 @@ public class Item11_Clone {
         }
     }
 
+    /**
+     * Persistent alternative to Stack, for callers that snapshot often
+     *
+     * A PersistentStack is immutable: push and pop return new versions that share every node below the top
+     * with the version they came from, so a snapshot is the stack reference itself and costs nothing to take.
+     * Builder is a mutable facade with Stack's push/pop API; snapshot() is O(1) because the builder only ever
+     * replaces its top-of-stack reference and never modifies a node. It is not a transient with a cheaper bulk
+     * representation: every push, pushAll included, allocates one node, which is what keeps snapshots free.
+     */
+    public static final class PersistentStack {
+        private static final PersistentStack EMPTY = new PersistentStack(null, null, 0);
+
+        private final Object top;
+        private final PersistentStack rest;
+        private final int size;
+
+        private PersistentStack(Object top, PersistentStack rest, int size) {
+            this.top = top;
+            this.rest = rest;
+            this.size = size;
+        }
+
+        public static PersistentStack empty() {
+            return EMPTY;
+        }
+
+        public PersistentStack push(Object e) {
+            return new PersistentStack(e, this, size + 1);
+        }
+
+        // Returns this stack without its top element
+        public PersistentStack pop() {
+            if (size == 0)
+                throw new EmptyStackException();
+            return rest;
+        }
+
+        public Object peek() {
+            if (size == 0)
+                throw new EmptyStackException();
+            return top;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder toBuilder() {
+            return new Builder(this);
+        }
+
+        public static final class Builder implements Cloneable {
+            private PersistentStack current;
+
+            public Builder() {
+                this(EMPTY);
+            }
+
+            private Builder(PersistentStack current) {
+                this.current = current;
+            }
+
+            public void push(Object e) {
+                current = current.push(e);
+            }
+
+            // Pushes elements in order, leaving the last one on top; one node per element, as with push
+            public Builder pushAll(Object... elements) {
+                PersistentStack s = current;
+                for (Object e : elements)
+                    s = new PersistentStack(e, s, s.size + 1);
+                current = s;
+                return this;
+            }
+
+            public Object pop() {
+                Object result = current.peek();
+                current = current.rest;     // The popped node stays reachable only from older snapshots
+                return result;
+            }
+
+            public boolean isEmpty() {
+                return current.isEmpty();
+            }
+
+            public int size() {
+                return current.size;
+            }
+
+            public PersistentStack snapshot() {
+                return current;
+            }
+
+            // Returns to an earlier snapshot, as an undo stack does
+            public void restore(PersistentStack snapshot) {
+                if (snapshot == null)
+                    throw new NullPointerException();
+                current = snapshot;
+            }
+
+            // O(1): the clone shares every node with this builder
+            @Override
+            public Builder clone() {
+                try {
+                    return (Builder) super.clone();
+                } catch (CloneNotSupportedException e) {
+                    throw new AssertionError();
+                }
+            }
+        }
+    }
+
     /**
      * Class with flawed clone method that shares internal state
      */
@@ -230,55 +359,671 @@ public class Item11_Clone {
 
     /**
      * Class with clone method that calls iterative deep copy method for array elements
+     *
+     * Grown into a working map (put, get, remove, power-of-two resizing) whose clone is copy-on-write.
+     * clone() copies only the top-level array of bucket pages; the pages and their chains stay shared.
+     * A table copies a page the first time it writes to it, and a chain (with the iterative deepCopy)
+     * the first time it writes to that chain, so each side pays only for what it changes.
+     *
+     * Ownership is tracked with owner tokens: a table may modify a page or entry in place only if it carries
+     * the table's current token. clone gives both tables fresh tokens, so neither can modify what they share.
+     *
+     * deepClone() is the eager alternative: it copies every page and chain up front, splitting the pages
+     * across the fork/join pool once the table is larger than SEQUENTIAL_CUTOFF pages.
+     * Null keys are not permitted. Not thread-safe.
      */
     public static class HashTable3 implements Cloneable {
-        private Entry[] buckets = new Entry[10];
+        private static final int PAGE_SHIFT = 10;
+        private static final int PAGE_SIZE = 1 << PAGE_SHIFT;   // Buckets per page
+        private static final int DEFAULT_CAPACITY = 16;
+        private static final float LOAD_FACTOR = 0.75f;
+        private static final int SEQUENTIAL_CUTOFF = 16;        // Pages copied per task in deepClone
+
+        private Entry[][] pages;
+        private Object[] pageOwners;
+        private Object owner = new Object();
+        private int capacity;
+        private int size = 0;
+
+        public HashTable3() {
+            allocate(DEFAULT_CAPACITY);
+        }
 
         private static class Entry {
             final Object key;
+            final int hash;
             Object value;
             Entry next;
+            final Object owner;     // Token of the table allowed to modify this entry in place
 
-            Entry(Object key, Object value, Entry next) {
+            Entry(Object key, int hash, Object value, Entry next, Object owner) {
                 this.key = key;
+                this.hash = hash;
                 this.value = value;
                 this.next = next;
+                this.owner = owner;
             }
 
-            // Iteratively copy the linked list headed by this Entry
-            Entry deepCopy() {
-                Entry result = new Entry(key, value, next);
+            // Iteratively copy the linked list headed by this Entry, giving the copies to owner
+            Entry deepCopy(Object owner) {
+                Entry result = new Entry(key, hash, value, next, owner);
 
                 for (Entry p = result; p.next != null; p = p.next) {
-                    p.next = new Entry(p.next.key, p.next.value, p.next.next);
+                    p.next = new Entry(p.next.key, p.next.hash, p.next.value, p.next.next, owner);
                 }
 
                 return result;
             }
         }
 
-        // clone method that uses deep copy for array elements
+        public int size() {
+            return size;
+        }
+
+        public Object get(Object key) {
+            int h = hash(key);
+            int index = h & (capacity - 1);
+            for (Entry e = pages[index >>> PAGE_SHIFT][index & (PAGE_SIZE - 1)]; e != null; e = e.next) {
+                if (e.hash == h && e.key.equals(key))
+                    return e.value;
+            }
+            return null;
+        }
+
+        public boolean containsKey(Object key) {
+            int h = hash(key);
+            int index = h & (capacity - 1);
+            for (Entry e = pages[index >>> PAGE_SHIFT][index & (PAGE_SIZE - 1)]; e != null; e = e.next) {
+                if (e.hash == h && e.key.equals(key))
+                    return true;
+            }
+            return false;
+        }
+
+        // Returns the previous value for key, or null
+        public Object put(Object key, Object value) {
+            int h = hash(key);
+            int index = h & (capacity - 1);
+            Entry[] page = writablePage(index);
+            int slot = index & (PAGE_SIZE - 1);
+            for (Entry e = page[slot]; e != null; e = e.next) {
+                if (e.hash == h && e.key.equals(key)) {
+                    Object previous = e.value;
+                    writableChain(page, slot);
+                    for (Entry w = page[slot]; ; w = w.next) {
+                        if (w.hash == h && w.key.equals(key)) {
+                            w.value = value;
+                            return previous;
+                        }
+                    }
+                }
+            }
+            page[slot] = new Entry(key, h, value, page[slot], owner);  // Prepending leaves the shared tail untouched
+            if (++size > capacity * LOAD_FACTOR)
+                resize(capacity << 1);
+            return null;
+        }
+
+        // Returns the removed value, or null
+        public Object remove(Object key) {
+            int h = hash(key);
+            int index = h & (capacity - 1);
+            int slot = index & (PAGE_SIZE - 1);
+            if (!containsKey(key))
+                return null;
+            Entry[] page = writablePage(index);
+            writableChain(page, slot);
+            Entry prev = null;
+            for (Entry e = page[slot]; ; prev = e, e = e.next) {
+                if (e.hash == h && e.key.equals(key)) {
+                    if (prev == null)
+                        page[slot] = e.next;
+                    else
+                        prev.next = e.next;
+                    size--;
+                    return e.value;
+                }
+            }
+        }
+
+        // Copy-on-write clone: O(capacity / PAGE_SIZE), independent of the number of entries
         @Override
         public HashTable3 clone() {
             try {
                 HashTable3 result = (HashTable3) super.clone();
-                result.buckets = new Entry[buckets.length];
-                for (int i = 0; i < buckets.length; i++) {
-                    if (buckets[i] != null) {
-                        result.buckets[i] = buckets[i].deepCopy();
+                result.pages = pages.clone();
+                result.pageOwners = new Object[pages.length];
+                result.owner = new Object();
+                owner = new Object();   // The original no longer owns what it now shares
+                return result;
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError();
+            }
+        }
+
+        // Eager clone that shares no pages or entries with this table
+        public HashTable3 deepClone() {
+            return deepClone(SEQUENTIAL_CUTOFF);
+        }
+
+        private HashTable3 deepClone(int cutoff) {
+            try {
+                HashTable3 result = (HashTable3) super.clone();
+                result.owner = new Object();
+                result.pages = new Entry[pages.length][];
+                result.pageOwners = new Object[pages.length];
+                Arrays.fill(result.pageOwners, result.owner);
+                CopyPages task = new CopyPages(pages, result.pages, result.owner, 0, pages.length, cutoff);
+                if (pages.length <= cutoff)
+                    task.compute();
+                else
+                    ForkJoinPool.commonPool().invoke(task);
+                return result;
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError();
+            }
+        }
+
+        private static final class CopyPages extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Entry[][] source;
+            private final Entry[][] target;
+            private final Object owner;
+            private final int from;
+            private final int to;
+            private final int cutoff;
+
+            CopyPages(Entry[][] source, Entry[][] target, Object owner, int from, int to, int cutoff) {
+                this.source = source;
+                this.target = target;
+                this.owner = owner;
+                this.from = from;
+                this.to = to;
+                this.cutoff = cutoff;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= cutoff) {
+                    for (int p = from; p < to; p++) {
+                        Entry[] page = source[p];
+                        Entry[] copy = new Entry[page.length];
+                        for (int slot = 0; slot < page.length; slot++) {
+                            if (page[slot] != null)
+                                copy[slot] = page[slot].deepCopy(owner);
+                        }
+                        target[p] = copy;
                     }
+                    return;
                 }
+                int mid = (from + to) >>> 1;
+                invokeAll(new CopyPages(source, target, owner, from, mid, cutoff),
+                          new CopyPages(source, target, owner, mid, to, cutoff));
+            }
+        }
+
+        private static int hash(Object key) {
+            int h = key.hashCode();     // Throws NullPointerException for a null key
+            return h ^ (h >>> 16);
+        }
+
+        private Entry[] writablePage(int index) {
+            int p = index >>> PAGE_SHIFT;
+            if (pageOwners[p] != owner) {
+                pages[p] = pages[p].clone();
+                pageOwners[p] = owner;
+            }
+            return pages[p];
+        }
+
+        private void writableChain(Entry[] page, int slot) {
+            for (Entry e = page[slot]; e != null; e = e.next) {
+                if (e.owner != owner) {
+                    page[slot] = page[slot].deepCopy(owner);
+                    return;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            int pageCount = Math.max(1, capacity >>> PAGE_SHIFT);
+            pages = new Entry[pageCount][Math.min(capacity, PAGE_SIZE)];
+            pageOwners = new Object[pageCount];
+            Arrays.fill(pageOwners, owner);
+        }
+
+        // Rebuilds every chain with fresh entries, so shared entries are never relinked
+        private void resize(int newCapacity) {
+            Entry[][] oldPages = pages;
+            allocate(newCapacity);
+            for (Entry[] page : oldPages) {
+                for (Entry head : page) {
+                    for (Entry e = head; e != null; e = e.next) {
+                        int index = e.hash & (capacity - 1);
+                        Entry[] target = pages[index >>> PAGE_SHIFT];
+                        int slot = index & (PAGE_SIZE - 1);
+                        target[slot] = new Entry(e.key, e.hash, e.value, target[slot], owner);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Concurrent variant of the HashTable chains
+     *
+     * Reads take no lock: bucket heads are read through an AtomicReferenceArray and next and value are volatile,
+     * so a reader always sees a well-formed chain.
+     * Writes lock one of STRIPES locks, chosen by the low bits of the hash; since the table never has fewer
+     * buckets than stripes, a key stays in the same stripe across resizes.
+     *
+     * Resizing is shared by writers. The writer that crosses the threshold publishes a Resize;
+     * each writer that comes along afterwards claims stripes and moves their buckets to the new table,
+     * replacing each moved bucket with a Forward node that sends readers and writers to the new table.
+     * Moved entries are copied, never relinked, so readers still walking an old chain are unaffected.
+     *
+     * clone() takes every stripe lock, finishes any resize in progress, and deep-copies the table,
+     * so the clone is a consistent snapshot. Null keys and values are not permitted.
+     */
+    public static final class ConcurrentHashTable implements Cloneable {
+        private static final int STRIPES = 64;
+        private static final int DEFAULT_CAPACITY = 64;    // Must not be less than STRIPES
+        private static final int MAX_CAPACITY = 1 << 30;
+        private static final float LOAD_FACTOR = 0.75f;
+
+        private volatile Table table = new Table(DEFAULT_CAPACITY);
+        private AtomicReference<Resize> resize = new AtomicReference<>();  // Non-null while resizing
+        private ReentrantLock[] locks = newLocks();
+        private LongAdder count = new LongAdder();
+
+        static class Node {
+            final Object key;
+            final int hash;
+            volatile Object value;
+            volatile Node next;
+
+            Node(Object key, int hash, Object value, Node next) {
+                this.key = key;
+                this.hash = hash;
+                this.value = value;
+                this.next = next;
+            }
+        }
+
+        // Head of a bucket that has been moved to nextTable
+        static final class Forward extends Node {
+            final Table nextTable;
+
+            Forward(Table nextTable) {
+                super(null, 0, null, null);
+                this.nextTable = nextTable;
+            }
+        }
+
+        static final class Table {
+            final AtomicReferenceArray<Node> buckets;
+            final int mask;
+
+            Table(int capacity) {
+                buckets = new AtomicReferenceArray<>(capacity);
+                mask = capacity - 1;
+            }
+
+            int capacity() {
+                return mask + 1;
+            }
+        }
+
+        static final class Resize {
+            final Table from;
+            final Table to;
+            final AtomicInteger nextStripe = new AtomicInteger();
+            final AtomicInteger doneStripes = new AtomicInteger();
+            final boolean[] moved = new boolean[STRIPES];  // moved[s] is guarded by stripe lock s
+
+            Resize(Table from) {
+                this.from = from;
+                this.to = new Table(from.capacity() << 1);
+            }
+        }
+
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, count.sum());
+        }
+
+        public Object get(Object key) {
+            int h = hash(key);
+            Table t = table;
+            Node e = t.buckets.get(h & t.mask);
+            while (e instanceof Forward) {
+                t = ((Forward) e).nextTable;
+                e = t.buckets.get(h & t.mask);
+            }
+            for (; e != null; e = e.next) {
+                if (e.hash == h && key.equals(e.key))
+                    return e.value;
+            }
+            return null;
+        }
+
+        // Returns the previous value for key, or null
+        public Object put(Object key, Object value) {
+            if (value == null)
+                throw new NullPointerException();
+            int h = hash(key);
+            ReentrantLock lock = locks[h & (STRIPES - 1)];
+            lock.lock();
+            try {
+                Table t = tableFor(h);
+                int i = h & t.mask;
+                Node head = t.buckets.get(i);
+                for (Node e = head; e != null; e = e.next) {
+                    if (e.hash == h && key.equals(e.key)) {
+                        Object previous = e.value;
+                        e.value = value;
+                        return previous;
+                    }
+                }
+                t.buckets.set(i, new Node(key, h, value, head));
+            } finally {
+                lock.unlock();
+            }
+            count.increment();
+            resizeIfNeeded();
+            return null;
+        }
+
+        // Returns the removed value, or null
+        public Object remove(Object key) {
+            int h = hash(key);
+            ReentrantLock lock = locks[h & (STRIPES - 1)];
+            Object removed = null;
+            lock.lock();
+            try {
+                Table t = tableFor(h);
+                int i = h & t.mask;
+                for (Node e = t.buckets.get(i), prev = null; e != null; prev = e, e = e.next) {
+                    if (e.hash == h && key.equals(e.key)) {
+                        if (prev == null)
+                            t.buckets.set(i, e.next);
+                        else
+                            prev.next = e.next;
+                        removed = e.value;
+                        break;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (removed != null) {
+                count.decrement();
+                helpResize();
+            }
+            return removed;
+        }
+
+        // Consistent snapshot: writers are held off while the table is copied
+        @Override
+        public ConcurrentHashTable clone() {
+            for (ReentrantLock lock : locks)
+                lock.lock();
+            try {
+                Resize r = resize.get();
+                if (r != null) {
+                    for (int s = 0; s < STRIPES; s++)
+                        moveStripe(r, s);
+                    retire(r);
+                }
+
+                Table t = table;
+                Table copy = new Table(t.capacity());
+                long size = 0;
+                for (int i = 0; i < t.capacity(); i++) {
+                    Node copyHead = null;
+                    for (Node e = t.buckets.get(i); e != null; e = e.next) {
+                        copyHead = new Node(e.key, e.hash, e.value, copyHead);
+                        size++;
+                    }
+                    copy.buckets.set(i, copyHead);
+                }
+
+                ConcurrentHashTable result = (ConcurrentHashTable) super.clone();
+                result.table = copy;
+                result.resize = new AtomicReference<>();
+                result.locks = newLocks();
+                result.count = new LongAdder();
+                result.count.add(size);
                 return result;
             } catch (CloneNotSupportedException e) {
                 throw new AssertionError();
+            } finally {
+                for (ReentrantLock lock : locks)
+                    lock.unlock();
             }
         }
+
+        private static int hash(Object key) {
+            int h = key.hashCode();     // Throws NullPointerException for a null key
+            return h ^ (h >>> 16);
+        }
+
+        private static ReentrantLock[] newLocks() {
+            ReentrantLock[] locks = new ReentrantLock[STRIPES];
+            for (int i = 0; i < STRIPES; i++)
+                locks[i] = new ReentrantLock();
+            return locks;
+        }
+
+        // The table that currently holds hash's bucket; caller holds the bucket's stripe lock
+        private Table tableFor(int h) {
+            Table t = table;
+            for (Node head; (head = t.buckets.get(h & t.mask)) instanceof Forward; )
+                t = ((Forward) head).nextTable;
+            return t;
+        }
+
+        private void resizeIfNeeded() {
+            Table t = table;
+            if (resize.get() == null && count.sum() > t.capacity() * LOAD_FACTOR && t.capacity() < MAX_CAPACITY) {
+                synchronized (resize) {
+                    // A resize that just finished sets table before clearing resize, so t is current here
+                    if (resize.get() == null && table == t)
+                        resize.set(new Resize(t));
+                }
+            }
+            helpResize();
+        }
+
+        private void helpResize() {
+            Resize r = resize.get();
+            if (r == null)
+                return;
+            for (int s; (s = r.nextStripe.getAndIncrement()) < STRIPES; ) {
+                ReentrantLock lock = locks[s];
+                boolean last;
+                lock.lock();
+                try {
+                    last = moveStripe(r, s) && r.doneStripes.incrementAndGet() == STRIPES;
+                } finally {
+                    lock.unlock();
+                }
+                if (last)
+                    retire(r);
+            }
+        }
+
+        /*
+         * Publishes r's table and clears r, unless r was already retired (by clone or another helper) and perhaps
+         * replaced by a newer resize. Done under the same monitor as starting a resize, so table is always set
+         * before resize is cleared and a stale helper can never publish an old table or clear a newer resize.
+         */
+        private void retire(Resize r) {
+            synchronized (resize) {
+                if (resize.get() == r) {
+                    table = r.to;
+                    resize.set(null);
+                }
+            }
+        }
+
+        // Moves every bucket of stripe s; caller holds its lock. Returns false if it was already moved.
+        private static boolean moveStripe(Resize r, int s) {
+            if (r.moved[s])
+                return false;
+            Forward forward = new Forward(r.to);
+            for (int i = s; i < r.from.capacity(); i += STRIPES) {
+                Node head = r.from.buckets.get(i);
+                if (head instanceof Forward)
+                    continue;   // Already moved; never copy a Forward as if it were an entry
+                for (Node e = head; e != null; e = e.next) {
+                    int j = e.hash & r.to.mask;
+                    r.to.buckets.set(j, new Node(e.key, e.hash, e.value, r.to.buckets.get(j)));
+                }
+                r.from.buckets.set(i, forward);
+            }
+            r.moved[s] = true;
+            return true;
+        }
+    }
+
+    /**
+     * Throughput of ConcurrentHashTable vs. ConcurrentHashMap under read-heavy, mixed and write-heavy workloads
+     */
+    private interface TableOps {
+        Object get(Object key);
+        Object put(Object key, Object value);
+    }
+
+    private static long timeWorkload(final TableOps table, int threads, final int readPercent,
+                                     final Integer[] keys, final int opsPerThread) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                executor.execute(new Runnable() {
+                    public void run() {
+                        Random random = new Random(seed);
+                        ready.countDown();
+                        try {
+                            start.await();
+                            for (int i = 0; i < opsPerThread; i++) {
+                                Integer key = keys[random.nextInt(keys.length)];
+                                if (random.nextInt(100) < readPercent)
+                                    table.get(key);
+                                else
+                                    table.put(key, key);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            ready.await();
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            return System.nanoTime() - startNanos;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+
+    private static Object sink;
+
+    // Allocated bytes per snapshot of an undo stack that already holds depth elements
+    private static void measureSnapshots(int depth, int snapshots) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        Stack stack = new Stack();
+        for (int i = 0; i < depth; i++)
+            stack.push(i);
+        Object[] history = new Object[snapshots];
+        long bytes = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < snapshots; i++) {
+            stack.push(i);
+            history[i] = stack.clone();
+        }
+        bytes = threads.getThreadAllocatedBytes(tid) - bytes;
+        System.out.printf("Stack.clone at depth %d: %.1f bytes/snapshot%n", depth, (double) bytes / snapshots);
+        sink = history;
+
+        PersistentStack.Builder builder = new PersistentStack.Builder();
+        for (int i = 0; i < depth; i++)
+            builder.push(i);
+        history = new Object[snapshots];
+        bytes = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < snapshots; i++) {
+            builder.push(i);
+            history[i] = builder.snapshot();
+        }
+        bytes = threads.getThreadAllocatedBytes(tid) - bytes;
+        System.out.printf("PersistentStack at depth %d: %.1f bytes/snapshot%n", depth, (double) bytes / snapshots);
+        sink = history;
     }
 
+    public static void main(String[] args) throws InterruptedException {
+        HashTable3 config = new HashTable3();
+        for (int i = 0; i < 1_000_000; i++)
+            config.put("key" + i, i);
+
+        long start = System.nanoTime();
+        HashTable3 snapshot = config.clone();
+        long cloneNanos = System.nanoTime() - start;
+        config.put("key0", -1);
+        System.out.printf("clone of %d entries: %d us; original key0=%s, snapshot key0=%s%n",
+                snapshot.size(), cloneNanos / 1_000, config.get("key0"), snapshot.get("key0"));
 
+        measureSnapshots(10_000, 1_000);
 
-    public static void main(String[] args) {
+        // Deep clone throughput; an entry is about 32 bytes and a bucket 4 with compressed oops
+        for (int n = 1 << 20; n <= 1 << 22; n <<= 1) {
+            HashTable3 table = new HashTable3();
+            for (int i = 0; i < n; i++)
+                table.put(i, i);
+            long bytes = 32L * n + 4L * table.capacity;
+            for (int cutoff : new int[] { Integer.MAX_VALUE, HashTable3.SEQUENTIAL_CUTOFF }) {
+                long best = Long.MAX_VALUE;
+                for (int trial = 0; trial < 5; trial++) {
+                    long t0 = System.nanoTime();
+                    HashTable3 copy = table.deepClone(cutoff);
+                    best = Math.min(best, System.nanoTime() - t0);
+                    if (copy.size() != n)
+                        throw new AssertionError();
+                }
+                System.out.printf("deepClone of %d entries (%s): %d ms, %.2f GB/s%n", n,
+                        cutoff == Integer.MAX_VALUE ? "sequential" : "parallel", best / 1_000_000, (double) bytes / best);
+            }
+        }
 
+        Integer[] keys = new Integer[1 << 16];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int readPercent : new int[] { 90, 50, 10 }) {
+            final ConcurrentHashMap<Object, Object> chm = new ConcurrentHashMap<>();
+            final ConcurrentHashTable cht = new ConcurrentHashTable();
+            long chmNanos = timeWorkload(new TableOps() {
+                public Object get(Object key) { return chm.get(key); }
+                public Object put(Object key, Object value) { return chm.put(key, value); }
+            }, threads, readPercent, keys, 2_000_000);
+            long chtNanos = timeWorkload(new TableOps() {
+                public Object get(Object key) { return cht.get(key); }
+                public Object put(Object key, Object value) { return cht.put(key, value); }
+            }, threads, readPercent, keys, 2_000_000);
+            System.out.printf("%d%% reads, %d threads: ConcurrentHashMap %d ms, ConcurrentHashTable %d ms%n",
+                    readPercent, threads, chmNanos / 1_000_000, chtNanos / 1_000_000);
+        }
     }
 
 }
@@ -1,8 +1,37 @@
 package com.effective_java_2e.chap03_methods_common_to_all_objects;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by sofia on 5/14/17.
@@ -75,10 +104,246 @@ public class Item12_Comparable {
         }
     }
 
+    /**
+     * Case-insensitive key with case folded once, at construction
+     *
+     * Each code point is folded as Character.toLowerCase(Character.toUpperCase(cp)), the same folding
+     * that String.equalsIgnoreCase and String.CASE_INSENSITIVE_ORDER use (by code point since JDK 16).
+     * So equals agrees with equalsIgnoreCase, and compareTo agrees with CASE_INSENSITIVE_ORDER,
+     * but both work on the folded string, and the hash code is computed once from it.
+     */
+    public static final class FoldedString implements Comparable<FoldedString> {
+        private final String original;
+        private final String folded;
+        private final int hash;
+
+        public FoldedString(String s) {
+            if (s == null) throw new NullPointerException();
+            original = s;
+            folded = fold(s);
+            hash = folded.hashCode();
+        }
+
+        static int fold(int cp) {
+            if (cp < 128)   // ASCII fast path - same result
+                return cp >= 'A' && cp <= 'Z' ? cp + ('a' - 'A') : cp;
+            return Character.toLowerCase(Character.toUpperCase(cp));
+        }
+
+        static String fold(String s) {
+            for (int i = 0; i < s.length(); ) {
+                int cp = s.codePointAt(i);
+                if (fold(cp) != cp) {
+                    StringBuilder sb = new StringBuilder(s.length()).append(s, 0, i);
+                    for (int j = i; j < s.length(); j += Character.charCount(cp)) {
+                        cp = s.codePointAt(j);
+                        sb.appendCodePoint(fold(cp));
+                    }
+                    return sb.toString();
+                }
+                i += Character.charCount(cp);
+            }
+            return s;   // Already folded - share it
+        }
+
+        // Same value as fold(s).hashCode(), without creating the folded string
+        static int foldedHash(CharSequence s) {
+            int h = 0;
+            for (int i = 0; i < s.length(); ) {
+                int cp = Character.codePointAt(s, i);
+                int folded = fold(cp);
+                if (Character.isBmpCodePoint(folded))
+                    h = 31 * h + folded;
+                else
+                    h = 31 * (31 * h + Character.highSurrogate(folded)) + Character.lowSurrogate(folded);
+                i += Character.charCount(cp);
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof FoldedString))
+                return false;
+            FoldedString fs = (FoldedString) o;
+            return fs.hash == hash && fs.folded.equals(folded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public int compareTo(FoldedString fs) {
+            return folded.compareTo(fs.folded);
+        }
+
+        @Override
+        public String toString() {
+            return original;
+        }
+
+        // True if s equals this key ignoring case; allocates nothing
+        boolean matches(CharSequence s) {
+            int i = 0;
+            int j = 0;
+            while (i < s.length() && j < folded.length()) {
+                int cp = Character.codePointAt(s, i);
+                int expected = folded.codePointAt(j);
+                if (fold(cp) != expected)
+                    return false;
+                i += Character.charCount(cp);
+                j += Character.charCount(expected);
+            }
+            return i == s.length() && j == folded.length();
+        }
+    }
+
+    /**
+     * Case-insensitive hash map for high-rate lookups of headers and identifiers
+     *
+     * Open addressing with linear probing. Cached key hashes are kept in a parallel int array,
+     * so most mismatches are rejected without touching the key.
+     * Lookups by CharSequence fold the query char by char while hashing and comparing; they allocate nothing.
+     * Not thread-safe; null keys and values are not permitted.
+     */
+    public static final class CaseInsensitiveMap<V> {
+        private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+        private FoldedString[] keys;
+        private Object[] values;
+        private int[] hashes;
+        private int size;
+
+        public CaseInsensitiveMap() {
+            this(DEFAULT_INITIAL_CAPACITY);
+        }
+
+        public CaseInsensitiveMap(int expectedSize) {
+            if (expectedSize < 0)
+                throw new IllegalArgumentException("Negative size: "+expectedSize);
+            allocate(Integer.highestOneBit(Math.max(4, expectedSize * 4 / 3 + 1) - 1) << 1);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public V put(String key, V value) {
+            return put(new FoldedString(key), value);
+        }
+
+        public V put(FoldedString key, V value) {
+            if (value == null) throw new NullPointerException();
+            int mask = keys.length - 1;
+            int slot = spread(key.hash) & mask;
+            for (FoldedString k; (k = keys[slot]) != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == key.hash && k.folded.equals(key.folded)) {
+                    @SuppressWarnings("unchecked") V previous = (V) values[slot];
+                    values[slot] = value;
+                    return previous;
+                }
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            hashes[slot] = key.hash;
+            if (++size > keys.length / 4 * 3)
+                rehash(keys.length << 1);
+            return null;
+        }
+
+        public V get(CharSequence key) {
+            int slot = find(key);
+            @SuppressWarnings("unchecked") V value = slot < 0 ? null : (V) values[slot];
+            return value;
+        }
+
+        public V get(FoldedString key) {
+            int mask = keys.length - 1;
+            for (int slot = spread(key.hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == key.hash && keys[slot].folded.equals(key.folded)) {
+                    @SuppressWarnings("unchecked") V value = (V) values[slot];
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        public boolean containsKey(CharSequence key) {
+            return find(key) >= 0;
+        }
+
+        public V remove(CharSequence key) {
+            int slot = find(key);
+            if (slot < 0)
+                return null;
+            @SuppressWarnings("unchecked") V previous = (V) values[slot];
+            shiftBack(slot);
+            size--;
+            return previous;
+        }
+
+        private int find(CharSequence key) {
+            int hash = FoldedString.foldedHash(key);
+            int mask = keys.length - 1;
+            for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask)
+                if (hashes[slot] == hash && keys[slot].matches(key))
+                    return slot;
+            return -1;
+        }
+
+        private void shiftBack(int hole) {
+            int mask = keys.length - 1;
+            for (int j = (hole + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = spread(hashes[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hashes[hole] = hashes[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = null;
+            values[hole] = null;
+        }
+
+        private void allocate(int capacity) {
+            keys = new FoldedString[capacity];
+            values = new Object[capacity];
+            hashes = new int[capacity];
+        }
+
+        private void rehash(int capacity) {
+            FoldedString[] oldKeys = keys;
+            Object[] oldValues = values;
+            int[] oldHashes = hashes;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = spread(oldHashes[i]) & mask;
+                while (keys[slot] != null)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+
+        // String hashes are poorly distributed in the low bits; mix before masking
+        private static int spread(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
     /**
      * Class that has multiple significant fields
      */
-    public static class PhoneNumber1 implements Comparable<PhoneNumber1> {
+    public static class PhoneNumber1 implements Comparable<PhoneNumber1>, LongKeyed {
         private final short areaCode;
         private final short prefix;
         private final short lineNumber;
@@ -112,12 +377,17 @@ public class Item12_Comparable {
             // All fields are equal
             return 0;
         }
+
+        @Override
+        public long sortKey() {
+            return phoneNumberKey(areaCode, prefix, lineNumber);
+        }
     }
 
     /**
      * PhoneNumber class with improved compareTo method
      */
-    public static class PhoneNumber2 implements Comparable<PhoneNumber2> {
+    public static class PhoneNumber2 implements Comparable<PhoneNumber2>, LongKeyed {
         private final short areaCode;
         private final short prefix;
         private final short lineNumber;
@@ -147,12 +417,644 @@ public class Item12_Comparable {
             // Area codes and prefixes are equal, compare line numbers
             return lineNumber - pn.lineNumber;
         }
+
+        @Override
+        public long sortKey() {
+            return phoneNumberKey(areaCode, prefix, lineNumber);
+        }
     }
 
 
+    /**
+     * Types with a long key that orders exactly like compareTo: a.compareTo(b) and Long.compare(a.sortKey(), b.sortKey())
+     * always have the same sign. RadixSort sorts such types by their keys without calling compareTo.
+     */
+    public interface LongKeyed {
+        long sortKey();
+    }
 
-    public static void main(String[] args) {
+    // The fields are compared as signed shorts, so each is biased into 0..0xFFFF and packed in order of significance
+    private static long phoneNumberKey(short areaCode, short prefix, short lineNumber) {
+        return (long) ((areaCode ^ Short.MIN_VALUE) & 0xFFFF) << 32
+                | (long) ((prefix ^ Short.MIN_VALUE) & 0xFFFF) << 16
+                | ((lineNumber ^ Short.MIN_VALUE) & 0xFFFF);
+    }
+
+    /**
+     * Stable, parallel LSD radix sort of LongKeyed arrays
+     *
+     * Keys are extracted once, then sorted a byte at a time along with the elements; bytes in which no two keys
+     * differ are skipped, so phone numbers take at most six passes. Each pass splits the array into chunks:
+     * the chunks count their digits in parallel, the counts are turned into per-chunk offsets, and the chunks
+     * scatter in parallel. Arrays shorter than RADIX_THRESHOLD are sorted by key with Arrays.sort instead.
+     */
+    public static final class RadixSort {
+        private static final int RADIX_THRESHOLD = 1 << 12;
+        private static final int MIN_CHUNK = 1 << 16;   // Elements per chunk in a parallel pass
+
+        private RadixSort() { }
+
+        public static <T extends LongKeyed> void sort(T[] a) {
+            int n = a.length;
+            if (n < RADIX_THRESHOLD) {
+                Arrays.sort(a, new Comparator<T>() {
+                    public int compare(T x, T y) {
+                        return Long.compare(x.sortKey(), y.sortKey());
+                    }
+                });
+                return;
+            }
+
+            long[] keys = new long[n];
+            long differing = 0;
+            for (int i = 0; i < n; i++) {
+                keys[i] = a[i].sortKey() ^ Long.MIN_VALUE;   // Signed order becomes unsigned byte order
+                differing |= keys[i] ^ keys[0];
+            }
+
+            int chunks = (int) Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4L, n / MIN_CHUNK));
+            Pass pass = new Pass(keys, new long[n], a, Arrays.copyOf(a, n), chunks);
+            for (int shift = 0; shift < Long.SIZE; shift += 8) {
+                if ((differing >>> shift & 0xFF) != 0)
+                    pass.run(shift);
+            }
+            if (pass.elements != a)
+                System.arraycopy(pass.elements, 0, a, 0, n);
+        }
 
+        // One chunked counting-sort pass; keys and elements swap with their buffers after each pass
+        private static final class Pass {
+            long[] keys;
+            long[] keyBuffer;
+            Object[] elements;
+            Object[] elementBuffer;
+            final int chunks;
+            final int[][] offsets;
+            int shift;
+
+            Pass(long[] keys, long[] keyBuffer, Object[] elements, Object[] elementBuffer, int chunks) {
+                this.keys = keys;
+                this.keyBuffer = keyBuffer;
+                this.elements = elements;
+                this.elementBuffer = elementBuffer;
+                this.chunks = chunks;
+                this.offsets = new int[chunks][256];
+            }
+
+            void run(int shift) {
+                this.shift = shift;
+                invoke(new Chunks(this, true, 0, chunks));
+
+                int next = 0;
+                for (int digit = 0; digit < 256; digit++) {
+                    for (int c = 0; c < chunks; c++) {
+                        int count = offsets[c][digit];
+                        offsets[c][digit] = next;
+                        next += count;
+                    }
+                }
+
+                invoke(new Chunks(this, false, 0, chunks));
+                long[] k = keys;
+                keys = keyBuffer;
+                keyBuffer = k;
+                Object[] e = elements;
+                elements = elementBuffer;
+                elementBuffer = e;
+            }
+
+            private void invoke(Chunks task) {
+                if (chunks == 1)
+                    task.compute();
+                else
+                    ForkJoinPool.commonPool().invoke(task);
+            }
+
+            int start(int chunk) {
+                return (int) ((long) keys.length * chunk / chunks);
+            }
+
+            void count(int chunk) {
+                int[] counts = offsets[chunk];
+                Arrays.fill(counts, 0);
+                for (int i = start(chunk), end = start(chunk + 1); i < end; i++)
+                    counts[(int) (keys[i] >>> shift) & 0xFF]++;
+            }
+
+            void scatter(int chunk) {
+                int[] next = offsets[chunk];
+                for (int i = start(chunk), end = start(chunk + 1); i < end; i++) {
+                    int to = next[(int) (keys[i] >>> shift) & 0xFF]++;
+                    keyBuffer[to] = keys[i];
+                    elementBuffer[to] = elements[i];
+                }
+            }
+        }
+
+        private static final class Chunks extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Pass pass;
+            private final boolean counting;
+            private final int from;
+            private final int to;
+
+            Chunks(Pass pass, boolean counting, int from, int to) {
+                this.pass = pass;
+                this.counting = counting;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from == 1) {
+                    if (counting)
+                        pass.count(from);
+                    else
+                        pass.scatter(from);
+                    return;
+                }
+                int mid = (from + to) >>> 1;
+                invokeAll(new Chunks(pass, counting, from, mid), new Chunks(pass, counting, mid, to));
+            }
+        }
+    }
+
+    /**
+     * External sort for WordList-style inputs too large for a TreeSet
+     *
+     * Input is UTF-8 text with one word per line; blank lines are skipped and output order is String's natural order.
+     * Run generation: the input is read through a large buffer into batches sized to a share of the memory budget,
+     * and up to parallelism batches are sorted, de-duplicated and written to temporary run files at once.
+     * Merge: runs are merged with a loser tree, which needs one comparison per tree level per word, and duplicates
+     * across runs are dropped. When there are more runs than the budget gives buffers for, groups of runs are
+     * first merged into longer runs.
+     */
+    public static final class ExternalSort {
+        private static final int IO_BUFFER_SIZE = 1 << 20;
+        private static final int MIN_MERGE_BUFFER_SIZE = 1 << 16;
+        private static final int MAX_FAN_IN = 512;
+
+        private final long memoryBudget;
+        private final Path tempDir;
+        private final int parallelism;
+
+        // Uses as many threads as there are processors, but no more than the budget can give a batch each
+        public ExternalSort(long memoryBudget, Path tempDir) {
+            this(memoryBudget, tempDir, (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                    memoryBudget / (2 * IO_BUFFER_SIZE) - 1)));
+        }
+
+        public ExternalSort(long memoryBudget, Path tempDir, int parallelism) {
+            if (parallelism < 1)
+                throw new IllegalArgumentException("parallelism < 1: " + parallelism);
+            if (memoryBudget < (long) (parallelism + 1) * 2 * IO_BUFFER_SIZE)
+                throw new IllegalArgumentException("Memory budget too small for " + parallelism + " threads: " + memoryBudget);
+            if (tempDir == null)
+                throw new NullPointerException();
+            this.memoryBudget = memoryBudget;
+            this.tempDir = tempDir;
+            this.parallelism = parallelism;
+        }
+
+        // Writes the sorted distinct words of input to output, one per line, and returns how many there were
+        public long sort(Path input, Path output) throws IOException {
+            try (SortedWords words = open(input);
+                 LineWriter out = new LineWriter(output, IO_BUFFER_SIZE)) {
+                long count = 0;
+                while (words.hasNext()) {
+                    out.write(words.next());
+                    count++;
+                }
+                return count;
+            }
+        }
+
+        // Streams the sorted distinct words of input; closing the result deletes the temporary runs
+        public SortedWords open(Path input) throws IOException {
+            List<Path> runs = writeRuns(input);
+            try {
+                int fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / MIN_MERGE_BUFFER_SIZE - 1));
+                while (runs.size() > fanIn) {
+                    List<Path> merged = new ArrayList<>();
+                    try {
+                        for (int from = 0; from < runs.size(); from += fanIn) {
+                            List<Path> group = runs.subList(from, Math.min(runs.size(), from + fanIn));
+                            Path run = Files.createTempFile(tempDir, "run", ".txt");
+                            merged.add(run);
+                            try (SortedWords words = new SortedWords(group, bufferSize(group.size()));
+                                 LineWriter out = new LineWriter(run, IO_BUFFER_SIZE)) {
+                                while (words.hasNext())
+                                    out.write(words.next());
+                            }
+                        }
+                    } catch (IOException | RuntimeException | Error e) {
+                        delete(merged);
+                        throw e;
+                    }
+                    runs = merged;
+                }
+                return new SortedWords(runs, bufferSize(runs.size()));
+            } catch (IOException | RuntimeException | Error e) {
+                delete(runs);
+                throw e;
+            }
+        }
+
+        private int bufferSize(int runs) {
+            return (int) Math.max(MIN_MERGE_BUFFER_SIZE, Math.min(IO_BUFFER_SIZE, memoryBudget / (runs + 1)));
+        }
+
+        private List<Path> writeRuns(Path input) throws IOException {
+            final long batchBudget = memoryBudget / (parallelism + 1) - IO_BUFFER_SIZE;  // One batch fills while the rest sort
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            Deque<Future<Path>> pending = new ArrayDeque<>();
+            List<Path> runs = new ArrayList<>();
+            try (LineReader in = new LineReader(input, IO_BUFFER_SIZE)) {
+                List<String> batch = new ArrayList<>();
+                long batchBytes = 0;
+                for (String word; (word = in.readLine()) != null; ) {
+                    if (word.isEmpty())
+                        continue;
+                    batch.add(word);
+                    batchBytes += 48 + 2L * word.length();  // Estimated footprint of the String and its list slot
+                    if (batchBytes >= batchBudget) {
+                        if (pending.size() == parallelism)
+                            runs.add(await(pending.removeFirst()));
+                        pending.addLast(executor.submit(new WriteRun(batch)));
+                        batch = new ArrayList<>();
+                        batchBytes = 0;
+                    }
+                }
+                if (!batch.isEmpty() || runs.isEmpty() && pending.isEmpty())
+                    pending.addLast(executor.submit(new WriteRun(batch)));
+                while (!pending.isEmpty())
+                    runs.add(await(pending.removeFirst()));
+                return runs;
+            } catch (IOException | RuntimeException | Error e) {
+                for (Future<Path> f : pending) {
+                    try {
+                        runs.add(await(f));
+                    } catch (IOException | RuntimeException | Error ignored) {
+                        // Already failing; keep the first exception
+                    }
+                }
+                delete(runs);
+                throw e;
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        private static Path await(Future<Path> run) throws IOException {
+            try {
+                return run.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing runs");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        private static void delete(List<Path> runs) {
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException ignored) {
+                    // Best effort; the file is in the temporary directory
+                }
+            }
+        }
+
+        // Sorts a batch and writes its distinct words to a new run file
+        private final class WriteRun implements Callable<Path> {
+            private final List<String> batch;
+
+            WriteRun(List<String> batch) {
+                this.batch = batch;
+            }
+
+            @Override
+            public Path call() throws IOException {
+                String[] words = batch.toArray(new String[batch.size()]);
+                batch.clear();
+                Arrays.sort(words);
+                Path run = Files.createTempFile(tempDir, "run", ".txt");
+                try (LineWriter out = new LineWriter(run, IO_BUFFER_SIZE)) {
+                    for (int i = 0; i < words.length; i++) {
+                        if (i == 0 || !words[i].equals(words[i - 1]))
+                            out.write(words[i]);
+                    }
+                } catch (IOException | RuntimeException | Error e) {
+                    Files.deleteIfExists(run);
+                    throw e;
+                }
+                return run;
+            }
+        }
+
+        /**
+         * Distinct words of a set of sorted runs, in order, chosen by a loser tree.
+         * tree[0] holds the index of the run with the smallest head; tree[1..k-1] hold the losers of each match.
+         */
+        public static final class SortedWords implements Iterator<String>, Closeable {
+            private final List<Path> runs;
+            private final LineReader[] readers;
+            private final String[] heads;     // Current word of each run; null once the run is exhausted
+            private final int[] tree;
+            private final int k;
+            private String last;
+
+            private SortedWords(List<Path> runs, int bufferSize) throws IOException {
+                this.runs = new ArrayList<>(runs);
+                this.k = runs.size();
+                this.readers = new LineReader[k];
+                this.heads = new String[k];
+                this.tree = new int[Math.max(1, k)];
+                try {
+                    for (int i = 0; i < k; i++) {
+                        readers[i] = new LineReader(runs.get(i), bufferSize);
+                        heads[i] = readers[i].readLine();
+                    }
+                } catch (IOException | RuntimeException | Error e) {
+                    close();
+                    throw e;
+                }
+                Arrays.fill(tree, k);           // k stands for a key smaller than every word
+                for (int i = k - 1; i >= 0; i--)
+                    replay(i);
+                skipDuplicates();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return k > 0 && heads[tree[0]] != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                last = advance();
+                skipDuplicates();
+                return last;
+            }
+
+            // Closes the runs and deletes their files
+            @Override
+            public void close() throws IOException {
+                IOException failure = null;
+                for (LineReader reader : readers) {
+                    if (reader == null)
+                        continue;
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                delete(runs);
+                if (failure != null)
+                    throw failure;
+            }
+
+            private void skipDuplicates() {
+                while (last != null && hasNext() && heads[tree[0]].equals(last))
+                    advance();
+            }
+
+            private String advance() {
+                int winner = tree[0];
+                String result = heads[winner];
+                try {
+                    heads[winner] = readers[winner].readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                replay(winner);
+                return result;
+            }
+
+            // Replays the matches from leaf s up to the root after its head has changed
+            private void replay(int s) {
+                for (int t = (s + k) >>> 1; t > 0; t >>>= 1) {
+                    if (beats(tree[t], s)) {
+                        int winner = tree[t];
+                        tree[t] = s;
+                        s = winner;
+                    }
+                }
+                tree[0] = s;
+            }
+
+            private boolean beats(int a, int b) {
+                if (a == k || b == k)
+                    return a == k;
+                if (heads[a] == null || heads[b] == null)
+                    return heads[b] == null && (heads[a] != null || a < b);
+                int c = heads[a].compareTo(heads[b]);
+                return c < 0 || c == 0 && a < b;
+            }
+        }
+
+        // Reads UTF-8 lines from a channel through one large buffer
+        private static final class LineReader implements Closeable {
+            private final FileChannel channel;
+            private final ByteBuffer buffer;
+            private byte[] line = new byte[256];
+            private boolean eof;
+
+            LineReader(Path path, int bufferSize) throws IOException {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                buffer = ByteBuffer.allocate(bufferSize);
+                buffer.flip();
+            }
+
+            // Returns the next line without its terminator, or null at end of input
+            String readLine() throws IOException {
+                int length = 0;
+                while (true) {
+                    if (!buffer.hasRemaining()) {
+                        if (eof || !fill())
+                            return length == 0 ? null : decode(length);
+                    }
+                    byte[] bytes = buffer.array();
+                    int from = buffer.position();
+                    int end = buffer.limit();
+                    int i = from;
+                    while (i < end && bytes[i] != '\n')
+                        i++;
+                    if (length + (i - from) > line.length)
+                        line = Arrays.copyOf(line, Math.max(2 * line.length, length + (i - from)));
+                    System.arraycopy(bytes, from, line, length, i - from);
+                    length += i - from;
+                    if (i < end) {
+                        buffer.position(i + 1);
+                        return decode(length);
+                    }
+                    buffer.position(end);
+                }
+            }
+
+            private boolean fill() throws IOException {
+                buffer.clear();
+                int n;
+                do {
+                    n = channel.read(buffer);
+                } while (n == 0);
+                buffer.flip();
+                eof = n < 0;
+                return !eof;
+            }
+
+            private String decode(int length) {
+                if (length > 0 && line[length - 1] == '\r')
+                    length--;
+                return new String(line, 0, length, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        }
+
+        // Writes UTF-8 lines to a channel through one large buffer
+        private static final class LineWriter implements Closeable {
+            private final FileChannel channel;
+            private final ByteBuffer buffer;
+
+            LineWriter(Path path, int bufferSize) throws IOException {
+                channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                buffer = ByteBuffer.allocate(bufferSize);
+            }
+
+            void write(String word) throws IOException {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length + 1 > buffer.remaining()) {
+                    flush();
+                    if (bytes.length + 1 > buffer.capacity()) {
+                        drain(ByteBuffer.wrap(bytes));
+                        bytes = new byte[0];
+                    }
+                }
+                buffer.put(bytes).put((byte) '\n');
+            }
+
+            private void flush() throws IOException {
+                buffer.flip();
+                drain(buffer);
+                buffer.clear();
+            }
+
+            private void drain(ByteBuffer bytes) throws IOException {
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    flush();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Header-style lookups - TreeMap with CASE_INSENSITIVE_ORDER vs. CaseInsensitiveMap
+        String[] names = new String[1_000];
+        String[] queries = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "X-Custom-Header-" + i;
+            queries[i] = names[i].toLowerCase();
+        }
+        Map<String, Integer> tree = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        CaseInsensitiveMap<Integer> folded = new CaseInsensitiveMap<>();
+        for (int i = 0; i < names.length; i++) {
+            tree.put(names[i], i);
+            folded.put(names[i], i);
+        }
+
+        for (int round = 0; round < 3; round++) {   // Earlier rounds warm up the JIT
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < 10_000; r++)
+                for (String q : queries)
+                    sum += tree.get(q);
+            long treeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < 10_000; r++)
+                for (String q : queries)
+                    sum += folded.get(q);
+            long foldedNanos = System.nanoTime() - start;
+            int lookups = 10_000 * queries.length;
+            System.out.printf("TreeMap %.1f ns/op, CaseInsensitiveMap %.1f ns/op (%d)%n",
+                    (double) treeNanos / lookups, (double) foldedNanos / lookups, sum);
+        }
+
+        // Sorting phone numbers - Arrays.parallelSort with compareTo vs. RadixSort on sortKey
+        Random random = new Random(42);
+        PhoneNumber2[] numbers = new PhoneNumber2[4_000_000];
+        for (int i = 0; i < numbers.length; i++)
+            numbers[i] = new PhoneNumber2(random.nextInt(1000), random.nextInt(1000), random.nextInt(10000));
+        for (int round = 0; round < 3; round++) {
+            PhoneNumber2[] byCompare = numbers.clone();
+            PhoneNumber2[] byKey = numbers.clone();
+            long start = System.nanoTime();
+            Arrays.parallelSort(byCompare);
+            long compareNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            RadixSort.sort(byKey);
+            long radixNanos = System.nanoTime() - start;
+            if (!Arrays.equals(byCompare, byKey))     // Both sorts are stable, so they agree element for element
+                throw new AssertionError("RadixSort and parallelSort disagree");
+            System.out.printf("%d phone numbers: Arrays.parallelSort %d ms, RadixSort %d ms%n",
+                    numbers.length, compareNanos / 1_000_000, radixNanos / 1_000_000);
+        }
+
+        // WordList at scale - ExternalSort with a 16 MB budget vs. TreeSet
+        Path dir = Files.createTempDirectory("wordlist");
+        Path input = dir.resolve("words.txt");
+        Path output = dir.resolve("sorted.txt");
+        Set<String> expected = new TreeSet<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+            char[] word = new char[8];
+            for (int i = 0; i < 3_000_000; i++) {
+                int length = 1 + random.nextInt(word.length);
+                for (int j = 0; j < length; j++)
+                    word[j] = (char) ('a' + random.nextInt(26));
+                String w = new String(word, 0, length);
+                expected.add(w);
+                writer.write(w);
+                writer.newLine();
+            }
+        }
+        try {
+            long start = System.nanoTime();
+            long distinct = new ExternalSort(16 << 20, dir).sort(input, output);
+            long sortNanos = System.nanoTime() - start;
+            if (distinct != expected.size() || !Files.readAllLines(output, StandardCharsets.UTF_8).equals(new ArrayList<>(expected)))
+                throw new AssertionError("ExternalSort and TreeSet disagree");
+            System.out.printf("ExternalSort of %d MB: %d distinct words in %d ms%n",
+                    Files.size(input) >> 20, distinct, sortNanos / 1_000_000);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.delete(dir);
+        }
     }
 
 }
@@ -1,5 +1,14 @@
 package com.effective_java_2e.chap03_methods_common_to_all_objects;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
 /**
  * Created by sofia on 5/14/17.
  */
@@ -91,7 +100,122 @@ public class item10_ToString {
          */
         @Override
         public String toString() {
-            return String.format("(%03d) %03d-%04d", areaCode, prefix, lineNumber);
+            char[] chars = new char[FORMATTED_LENGTH];
+            formatTo(chars, 0);
+            return new String(chars);
+        }
+
+        /**
+         * Length of the string representation described in toString
+         */
+        public static final int FORMATTED_LENGTH = 14;
+
+        /**
+         * Writes the string representation described in toString into dst,
+         * starting at offset, without allocating. Returns the offset just past it.
+         *
+         * @throws IndexOutOfBoundsException if fewer than FORMATTED_LENGTH chars remain after offset
+         */
+        public int formatTo(char[] dst, int offset) {
+            if (offset < 0 || offset > dst.length - FORMATTED_LENGTH)
+                throw new IndexOutOfBoundsException("offset: "+offset);
+            dst[offset] = '(';
+            digits(dst, offset + 1, areaCode, 3);
+            dst[offset + 4] = ')';
+            dst[offset + 5] = ' ';
+            digits(dst, offset + 6, prefix, 3);
+            dst[offset + 9] = '-';
+            digits(dst, offset + 10, lineNumber, 4);
+            return offset + FORMATTED_LENGTH;
+        }
+
+        /**
+         * Like formatTo(char[], int), for a CharBuffer; does not move the buffer's position.
+         */
+        public int formatTo(CharBuffer dst, int offset) {
+            checkRange(dst.limit(), offset);
+            if (dst.hasArray())
+                return formatTo(dst.array(), dst.arrayOffset() + offset) - dst.arrayOffset();
+            dst.put(offset, '(');
+            digits(dst, offset + 1, areaCode, 3);
+            dst.put(offset + 4, ')');
+            dst.put(offset + 5, ' ');
+            digits(dst, offset + 6, prefix, 3);
+            dst.put(offset + 9, '-');
+            digits(dst, offset + 10, lineNumber, 4);
+            return offset + FORMATTED_LENGTH;
+        }
+
+        /**
+         * Like formatTo(char[], int), as US-ASCII bytes; does not move the buffer's position.
+         */
+        public int formatTo(ByteBuffer dst, int offset) {
+            checkRange(dst.limit(), offset);
+            dst.put(offset, (byte) '(');
+            digits(dst, offset + 1, areaCode, 3);
+            dst.put(offset + 4, (byte) ')');
+            dst.put(offset + 5, (byte) ' ');
+            digits(dst, offset + 6, prefix, 3);
+            dst.put(offset + 9, (byte) '-');
+            digits(dst, offset + 10, lineNumber, 4);
+            return offset + FORMATTED_LENGTH;
+        }
+
+        /**
+         * Writes each phone number, followed by a newline, to channel as US-ASCII.
+         * Output is staged in one buffer of bufferSize bytes; no objects are created per number.
+         * Returns the number of phone numbers written.
+         */
+        public static long writeAll(Iterator<? extends PhoneNumber> numbers, WritableByteChannel channel,
+                                    int bufferSize) throws IOException {
+            if (bufferSize < FORMATTED_LENGTH + 1)
+                throw new IllegalArgumentException("Buffer too small: "+bufferSize);
+            ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize);
+            long count = 0;
+            while (numbers.hasNext()) {
+                if (buf.remaining() < FORMATTED_LENGTH + 1)
+                    drain(buf, channel);
+                int end = numbers.next().formatTo(buf, buf.position());
+                buf.put(end, (byte) '\n');
+                buf.position(end + 1);
+                count++;
+            }
+            drain(buf, channel);
+            return count;
+        }
+
+        private static void drain(ByteBuffer buf, WritableByteChannel channel) throws IOException {
+            buf.flip();
+            while (buf.hasRemaining())
+                channel.write(buf);
+            buf.clear();
+        }
+
+        private static void checkRange(int limit, int offset) {
+            if (offset < 0 || offset > limit - FORMATTED_LENGTH)
+                throw new IndexOutOfBoundsException("offset: "+offset);
+        }
+
+        // Writes value as exactly width decimal digits, padded with leading zeros
+        private static void digits(char[] dst, int offset, int value, int width) {
+            for (int i = offset + width - 1; i >= offset; i--) {
+                dst[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+
+        private static void digits(CharBuffer dst, int offset, int value, int width) {
+            for (int i = offset + width - 1; i >= offset; i--) {
+                dst.put(i, (char) ('0' + value % 10));
+                value /= 10;
+            }
+        }
+
+        private static void digits(ByteBuffer dst, int offset, int value, int width) {
+            for (int i = offset + width - 1; i >= offset; i--) {
+                dst.put(i, (byte) ('0' + value % 10));
+                value /= 10;
+            }
         }
     }
 
@@ -116,8 +240,14 @@ public class item10_ToString {
 
 
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        PhoneNumber jenny = new PhoneNumber(707, 867, 5309);
+        System.out.println(jenny + " " + jenny.toString().equals(String.format("(%03d) %03d-%04d", 707, 867, 5309)));
 
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = PhoneNumber.writeAll(Arrays.asList(jenny, new PhoneNumber(12, 3, 45)).iterator(),
+                Channels.newChannel(out), 4096);
+        System.out.print(count + " written:\n" + out);
     }
 
 }
@@ -1,6 +1,12 @@
 package com.effective_java_2e.chap04_classes_and_interfaces;
 
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by sofia on 5/14/17.
@@ -146,7 +152,7 @@ public class Item15_Mutability {
         }
 
         private int hashDouble(double val) {
-            long longBits = Double.doubleToLongBits(re);
+            long longBits = Double.doubleToLongBits(val);
             return (int) (longBits ^ (longBits >>> 32));
         }
 
@@ -175,6 +181,182 @@ public class Item15_Mutability {
         public static Complex2 valueOfPolar(double r, double theta) {
             return new Complex2(r * Math.cos(theta), r * Math.sin(theta));
         }
+
+        // Canonicalizing factory - equal values share one instance, so they may be compared with ==
+        private static final Interner<Complex2> CANONICAL = Interner.weak(16);
+
+        public static Complex2 canonicalValueOf(double re, double im) {
+            return CANONICAL.intern(new Complex2(re, im));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Complex2))
+                return false;
+
+            Complex2 c = (Complex2) o;
+            return Double.compare(re, c.re) == 0 &&
+                    Double.compare(im, c.im) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 17 + hashDouble(re);
+            result = 31 * result + hashDouble(im);
+            return result;
+        }
+
+        private static int hashDouble(double val) {
+            long longBits = Double.doubleToLongBits(val);
+            return (int) (longBits ^ (longBits >>> 32));
+        }
+    }
+
+    /**
+     * Canonicalizing factory (hash-consing) for immutable value classes
+     *
+     * intern returns the canonical instance equal to its argument, registering the argument if there is none,
+     * so equal values share one instance and duplicates can be collected.
+     * The value class must have consistent equals and hashCode.
+     *
+     * Storage is split into segments by hash, each guarded by its own lock,
+     * so callers contend only when their values fall in the same segment.
+     * - weak: a canonical instance lives as long as something else references it (a WeakHashMap per segment)
+     * - bounded: at most maxSize instances, least recently used evicted first (an access-ordered LinkedHashMap per segment)
+     *
+     * Only weak mode guarantees that equal values are ==. A bounded interner forgets an instance when it evicts it,
+     * so a value interned afterwards becomes a new canonical instance while holders of the old one keep theirs;
+     * bounded mode merely reduces duplicates, and its callers must compare with equals.
+     *
+     * Counts of hits, misses and evictions are kept; weak evictions are those the garbage collector cleared.
+     */
+    public static final class Interner<T> {
+        private final Segment<T>[] segments;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final boolean weak;
+
+        public static <T> Interner<T> weak(int concurrencyLevel) {
+            return new Interner<>(concurrencyLevel, 0, true);
+        }
+
+        public static <T> Interner<T> bounded(int maxSize, int concurrencyLevel) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("maxSize must be positive: "+maxSize);
+            return new Interner<>(concurrencyLevel, maxSize, false);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Interner(int concurrencyLevel, int maxSize, boolean weak) {
+            if (concurrencyLevel < 1)
+                throw new IllegalArgumentException("concurrencyLevel must be positive: "+concurrencyLevel);
+            int n = 1;
+            while (n < concurrencyLevel)
+                n <<= 1;
+            this.weak = weak;
+            segments = new Segment[n];
+            for (int i = 0; i < n; i++)
+                segments[i] = weak ? new WeakSegment<T>(hits, misses)
+                                   : new BoundedSegment<T>(hits, misses, Math.max(1, maxSize / n), evictions);
+        }
+
+        public T intern(T value) {
+            if (value == null)
+                throw new NullPointerException();
+            int h = value.hashCode() * 0x9E3779B9;
+            Segment<T> segment = segments[(h >>> 16) & (segments.length - 1)];
+            return segment.intern(value);
+        }
+
+        public long hits() { return hits.sum(); }
+        public long misses() { return misses.sum(); }
+
+        public long evictions() {
+            if (!weak)
+                return evictions.sum();
+            return misses.sum() - size();   // Every miss added an entry; the missing ones were cleared
+        }
+
+        public int size() {
+            int size = 0;
+            for (Segment<T> segment : segments)
+                size += segment.size();
+            return size;
+        }
+
+        // intern counts a hit if an equal value was already registered, even if it is value itself, and a miss otherwise
+        private abstract static class Segment<T> {
+            final LongAdder hits;
+            final LongAdder misses;
+
+            Segment(LongAdder hits, LongAdder misses) {
+                this.hits = hits;
+                this.misses = misses;
+            }
+
+            abstract T intern(T value);
+            abstract int size();
+        }
+
+        private static final class WeakSegment<T> extends Segment<T> {
+            private final Map<T, WeakReference<T>> map = new WeakHashMap<>();
+
+            WeakSegment(LongAdder hits, LongAdder misses) {
+                super(hits, misses);
+            }
+
+            synchronized T intern(T value) {
+                WeakReference<T> ref = map.get(value);
+                T canonical = ref == null ? null : ref.get();
+                if (canonical == null) {
+                    map.put(value, new WeakReference<>(value));
+                    misses.increment();
+                    return value;
+                }
+                hits.increment();
+                return canonical;
+            }
+
+            synchronized int size() {
+                return map.size();
+            }
+        }
+
+        private static final class BoundedSegment<T> extends Segment<T> {
+            private final Map<T, T> map;
+
+            BoundedSegment(LongAdder hits, LongAdder misses, final int maxSize, final LongAdder evictions) {
+                super(hits, misses);
+                map = new LinkedHashMap<T, T>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<T, T> eldest) {
+                        if (size() > maxSize) {
+                            evictions.increment();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+
+            synchronized T intern(T value) {
+                T canonical = map.get(value);
+                if (canonical == null) {
+                    map.put(value, value);
+                    misses.increment();
+                    return value;
+                }
+                hits.increment();
+                return canonical;
+            }
+
+            synchronized int size() {
+                return map.size();
+            }
+        }
     }
 
     /**
@@ -191,7 +373,16 @@ public class Item15_Mutability {
 
 
     public static void main(String[] args) {
+        Complex2 a = Complex2.canonicalValueOf(1, 2);
+        Complex2 b = Complex2.canonicalValueOf(1, 2);
+        System.out.println("canonical instances identical: " + (a == b));
 
+        Interner<Complex2> bounded = Interner.bounded(1_000, 8);
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++)
+            bounded.intern(Complex2.valueOf(random.nextInt(1_500), 0));
+        System.out.printf("bounded: hits=%d misses=%d evictions=%d size=%d%n",
+                bounded.hits(), bounded.misses(), bounded.evictions(), bounded.size());
     }
 
 }
@@ -1,6 +1,11 @@
 package com.effective_java_2e.chap08_general_programming;
 
 import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
 
 /**
  * Created by sofia on 5/22/17.
@@ -101,15 +106,160 @@ public class Item49_PrimitiveType {
 
 
 
+    /**
+     * Primitive reductions over ranges and long[] on fork/join
+     *
+     * Ranges are half-open, [from, to). Inputs larger than SEQUENTIAL_CUTOFF are split in halves
+     * and reduced on the common ForkJoinPool; smaller ones run on the calling thread.
+     * Custom folds must use an associative operator, and identity must be an identity for it,
+     * because the order in which partial results are combined is unspecified.
+     */
+    public static final class LongReductions {
+        private LongReductions() {} // Prevents instantiation
+
+        private static final long SEQUENTIAL_CUTOFF = 1 << 16;
+
+        public static final LongBinaryOperator SUM = new LongBinaryOperator() {
+            public long applyAsLong(long left, long right) { return left + right; }
+        };
+        public static final LongBinaryOperator MIN = new LongBinaryOperator() {
+            public long applyAsLong(long left, long right) { return Math.min(left, right); }
+        };
+        public static final LongBinaryOperator MAX = new LongBinaryOperator() {
+            public long applyAsLong(long left, long right) { return Math.max(left, right); }
+        };
+
+        public static long sum(long from, long to) { return fold(from, to, 0, SUM); }
+        public static long sum(long[] a) { return fold(a, 0, SUM); }
+
+        // Return Long.MAX_VALUE / Long.MIN_VALUE for an empty array
+        public static long min(long[] a) { return fold(a, Long.MAX_VALUE, MIN); }
+        public static long max(long[] a) { return fold(a, Long.MIN_VALUE, MAX); }
+
+        public static long count(long[] a, LongPredicate p) {
+            return invoke(new Fold(a, 0, a.length, 0, SUM, p));
+        }
+
+        public static long count(long from, long to, LongPredicate p) {
+            checkRange(from, to);
+            return invoke(new Fold(null, from, to, 0, SUM, p));
+        }
+
+        public static long fold(long from, long to, long identity, LongBinaryOperator op) {
+            checkRange(from, to);
+            return invoke(new Fold(null, from, to, identity, op, null));
+        }
+
+        public static long fold(long[] a, long identity, LongBinaryOperator op) {
+            return invoke(new Fold(a, 0, a.length, identity, op, null));
+        }
+
+        private static void checkRange(long from, long to) {
+            if (from > to)
+                throw new IllegalArgumentException("from > to: "+from+" > "+to);
+        }
+
+        private static long invoke(Fold task) {
+            return task.isSmall() ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+        }
+
+        /*
+         * Folds array[from..to), or the values from..to themselves if array is null.
+         * With a filter, it folds a 1 for each value that passes instead (used by count).
+         */
+        private static final class Fold extends RecursiveTask<Long> {
+            private static final long serialVersionUID = 1L;
+
+            private final long[] array;
+            private final long from;
+            private final long to;
+            private final long identity;
+            private final LongBinaryOperator op;
+            private final LongPredicate filter;
+
+            Fold(long[] array, long from, long to, long identity, LongBinaryOperator op, LongPredicate filter) {
+                this.array = array;
+                this.from = from;
+                this.to = to;
+                this.identity = identity;
+                this.op = op;
+                this.filter = filter;
+            }
+
+            @Override
+            protected Long compute() {
+                if (isSmall())
+                    return leaf();
+                long mid = from + ((to - from) >>> 1);   // Unsigned halving; see isSmall
+                Fold left = new Fold(array, from, mid, identity, op, filter);
+                left.fork();
+                long right = new Fold(array, mid, to, identity, op, filter).compute();
+                return op.applyAsLong(left.join(), right);
+            }
+
+            // to - from may overflow a long, e.g. for Long.MIN_VALUE..Long.MAX_VALUE, but never exceeds 2^64 - 1 unsigned
+            boolean isSmall() {
+                return Long.compareUnsigned(to - from, SEQUENTIAL_CUTOFF) <= 0;
+            }
+
+            private long leaf() {
+                long result = identity;
+                if (filter != null) {
+                    for (long i = from; i < to; i++)
+                        if (filter.test(array == null ? i : array[(int) i]))
+                            result = op.applyAsLong(result, 1);
+                } else if (op == SUM) {     // Keep the common case a tight loop
+                    if (array == null) {
+                        for (long i = from; i < to; i++)
+                            result += i;
+                    } else {
+                        for (int i = (int) from; i < to; i++)
+                            result += array[i];
+                    }
+                } else if (array == null) {
+                    for (long i = from; i < to; i++)
+                        result = op.applyAsLong(result, i);
+                } else {
+                    for (int i = (int) from; i < to; i++)
+                        result = op.applyAsLong(result, array[i]);
+                }
+                return result;
+            }
+        }
+    }
+
+
+
     public static void main(String[] args) {
         /**
          * Hideously slow program
          */
+        long start = System.nanoTime();
         Long sum = 0L;
         for (long i = 0; i < Integer.MAX_VALUE; i++) {
             sum += i;
         }
-        System.out.println(sum);
+        report("boxed loop", sum, start);
+
+        /**
+         * Fixed - primitive loop, then parallel alternatives
+         */
+        start = System.nanoTime();
+        long sum2 = 0L;
+        for (long i = 0; i < Integer.MAX_VALUE; i++) {
+            sum2 += i;
+        }
+        report("primitive loop", sum2, start);
+
+        start = System.nanoTime();
+        report("LongStream.parallel()", LongStream.range(0, Integer.MAX_VALUE).parallel().sum(), start);
+
+        start = System.nanoTime();
+        report("LongReductions", LongReductions.sum(0, Integer.MAX_VALUE), start);
+    }
+
+    private static void report(String label, long sum, long startNanos) {
+        System.out.printf("%-24s %d (%d ms)%n", label, sum, (System.nanoTime() - startNanos) / 1_000_000);
     }
 
 }